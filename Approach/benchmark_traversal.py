@@ -0,0 +1,199 @@
+"""Throughput of the single-pass iterative engine against the recursive calculators.
+
+The recursive reference below is the Sonar / test-aware implementation the
+paper results were produced with. Both sides are run on the same files, the
+scores are cross-checked, and files/sec is reported per corpus. With --edits,
+the latency of incremental re-scoring after small edits is compared with
+scoring the edited file from scratch: In-method is the share of edits that
+walked only the edited method, Walked the methods walked per edit (an edit
+inside a method walks at most that one; the others keep their scores).
+"""
+import os
+import sys
+import time
+import random
+import statistics
+import argparse
+from complexity_engine import parser, compute_metrics, IncrementalScorer
+from corpus_archive import CorpusArchive
+
+SCRIPT_DIR = os.path.dirname(os.path.abspath(__file__))
+CORPORA = {
+    "Deeply_Nested_Trivial_Code": os.path.join(SCRIPT_DIR, "Deeply_Nested_Trivial_Code"),
+    "Generated-Test-Suite-Compilable": os.path.join(
+        SCRIPT_DIR, "..", "LLM-Generated-Test-Suite", "Generated-Test-Suite-Compilable"),
+}
+CONTROL_FLOW = ["if_statement", "for_statement", "while_statement", "do_statement", "switch_statement", "catch_clause"]
+
+# === Recursive Reference Calculators ===
+class RecursiveSonar:
+    def __init__(self, code, method_name=None):
+        self.code = code.encode("utf-8")
+        self.complexity = 0
+        self.nesting_level = 0
+        self.method_name = method_name
+
+    def compute_complexity(self):
+        tree = parser.parse(self.code)
+        self._analyze_node(tree.root_node)
+        return self.complexity
+
+    def _analyze_node(self, node):
+        for child in node.children:
+            kind = child.type
+            text = self.code[child.start_byte:child.end_byte].decode("utf-8")
+            if kind in CONTROL_FLOW:
+                self._increment(child)
+            else:
+                self._score(kind, text)
+            self._analyze_node(child)
+
+    def _score(self, kind, text):
+        if kind == "binary_expression" and ("&&" in text or "||" in text):
+            self.complexity += 1
+        elif kind == "labeled_statement" and any(k in text for k in ["break", "continue", "goto"]):
+            self.complexity += 1
+        elif kind == "method_invocation" and self._is_recursive_call(text):
+            self.complexity += 1
+
+    def _increment(self, node):
+        self.complexity += 1 + self.nesting_level
+        self.nesting_level += 1
+        self._analyze_node(node)
+        self.nesting_level -= 1
+
+    def _is_recursive_call(self, text):
+        return self.method_name and self.method_name in text
+
+class RecursiveTestAware(RecursiveSonar):
+    def _score(self, kind, text):
+        if kind == "method_invocation":
+            if self._is_recursive_call(text):
+                self.complexity += 1
+            if any(x in text for x in ["mock(", "when(", "verify("]):
+                self.complexity += 1
+            if "assert" in text or "fail(" in text:
+                self.complexity += 1
+        elif kind == "annotation":
+            if "@Test" in text:
+                self.complexity += 1
+            elif "@ParameterizedTest" in text:
+                self.complexity += 2
+            elif "@BeforeEach" in text or "@AfterEach" in text:
+                self.complexity += 1
+        else:
+            super()._score(kind, text)
+
+# === Benchmark ===
+def load_sources(base_dir):
+    sources = []
+    for root, _, files in os.walk(base_dir):
+        for f in sorted(files):
+            if f.endswith(".java") and "scaffolding" not in f:
+                with open(os.path.join(root, f), "r", encoding="utf-8", errors="ignore") as fh:
+                    sources.append((os.path.join(root, f), fh.read()))
+    return sources
+
+def load_archived_sources(archive_path):
+    """Same files as load_sources() on the packed root, read from the archive without a walk."""
+    with CorpusArchive(archive_path) as archive:
+        return [(entry.path, code) for entry, code in archive.sources(errors="ignore")]
+
+def run_recursive(sources):
+    scores, failures = {}, 0
+    for path, code in sources:
+        try:
+            scores[path] = {"sonar": RecursiveSonar(code).compute_complexity(),
+                            "testaware": RecursiveTestAware(code).compute_complexity()}
+        except RecursionError:
+            failures += 1
+    return scores, failures
+
+def run_engine(sources):
+    return {path: compute_metrics(code, ("sonar", "testaware")) for path, code in sources}, 0
+
+def run_edits(sources, edits, seed=0):
+    """Insert an assertion line into a random method body `edits` times per file.
+
+    Returns the per-edit incremental latencies (s), the full re-scoring time (s),
+    the mismatches, the methods walked and the edits that did not walk the file.
+    """
+    rng = random.Random(seed)
+    latencies = []
+    full = 0.0
+    mismatches = walked = local = 0
+    for _, code in sources:
+        scorer = IncrementalScorer(code)
+        for _ in range(edits):
+            source, newlines = scorer.source, scorer.index.offsets(b"\n")
+            # Line starts inside a method body where a statement may begin: the previous line ends one
+            lines = [line for method in scorer.methods if method.key is not None
+                     for line in range(max(method.start_line + 1, 2), method.end_line + 1)
+                     if source[newlines[line - 3] + 1 if line > 2 else 0:newlines[line - 2]].rstrip()[-1:]
+                     in (b";", b"{", b"}")]
+            if not lines:
+                break
+            offset = newlines[rng.choice(lines) - 2] + 1
+            start = time.perf_counter()
+            scores = scorer.edit(offset, offset, "        assertTrue(true);\n")
+            latencies.append(time.perf_counter() - start)
+            start = time.perf_counter()
+            expected = compute_metrics(scorer.code, ("sonar", "testaware"))
+            full += time.perf_counter() - start
+            mismatches += scores != expected
+            walked += scorer.rescored
+            local += not scorer.full_walk
+    return latencies, full, mismatches, walked, local
+
+def timed(runner, sources, repeat):
+    best, result = float("inf"), None
+    for _ in range(repeat):
+        start = time.perf_counter()
+        result = runner(sources)
+        best = min(best, time.perf_counter() - start)
+    return best, result
+
+def main():
+    arg_parser = argparse.ArgumentParser(description=__doc__)
+    arg_parser.add_argument("--repeat", type=int, default=3, help="runs per side; the best time is kept")
+    arg_parser.add_argument("--corpus", choices=sorted(CORPORA), action="append",
+                            help="corpus to benchmark (default: all)")
+    arg_parser.add_argument("--archive", help="read Generated-Test-Suite-Compilable from this corpus archive")
+    arg_parser.add_argument("--edits", type=int, default=0,
+                            help="also time incremental re-scoring over this many edits per file")
+    args = arg_parser.parse_args()
+    corpora = {}
+
+    print(f"{'Corpus':<32} | {'Files':>5} | {'Recursive f/s':>13} | {'Engine f/s':>10} | {'Speedup':>7} | {'RecErr':>6} | {'Diff':>4}")
+    print("-" * 96)
+    for name in args.corpus or sorted(CORPORA):
+        if args.archive and name == "Generated-Test-Suite-Compilable":
+            sources = load_archived_sources(args.archive)
+        else:
+            sources = load_sources(CORPORA[name])
+        if not sources:
+            print(f"{name:<32} | no .java files under {CORPORA[name]}", file=sys.stderr)
+            continue
+        corpora[name] = sources
+        rec_time, (rec_scores, rec_failures) = timed(run_recursive, sources, args.repeat)
+        eng_time, (eng_scores, _) = timed(run_engine, sources, args.repeat)
+        mismatches = sum(1 for path, scores in rec_scores.items() if eng_scores[path] != scores)
+        rec_rate = len(sources) / rec_time if rec_time else float("inf")
+        eng_rate = len(sources) / eng_time if eng_time else float("inf")
+        print(f"{name:<32} | {len(sources):>5} | {rec_rate:>13.1f} | {eng_rate:>10.1f} | "
+              f"{rec_time / eng_time if eng_time else 0:>6.1f}x | {rec_failures:>6} | {mismatches:>4}")
+
+    if not args.edits:
+        return
+    print(f"\n{'Corpus':<32} | {'Edits':>6} | {'Median ms':>9} | {'Max ms':>7} | {'Full ms':>7} | "
+          f"{'In-method':>9} | {'Walked':>6} | {'Diff':>4}")
+    print("-" * 104)
+    for name, sources in corpora.items():
+        latencies, full, mismatches, walked, local = run_edits(sources, args.edits)
+        count = len(latencies)
+        print(f"{name:<32} | {count:>6} | {statistics.median(latencies) * 1000:>9.3f} | "
+              f"{max(latencies) * 1000:>7.3f} | {full / count * 1000:>7.3f} | {local / count:>8.0%} | "
+              f"{walked / count:>6.2f} | {mismatches:>4}")
+
+if __name__ == "__main__":
+    main()
@@ -0,0 +1,140 @@
+package cctr.core;
+
+import com.sun.source.tree.CompilationUnitTree;
+import com.sun.source.util.JavacTask;
+import com.sun.source.util.SourcePositions;
+import com.sun.source.util.Trees;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import javax.tools.JavaFileObject;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.ToolProvider;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Throughput of the engine over the generated test corpus, in files per second.
+ *
+ * <p>One operation is one file, so {@code ops/s} reads as files/sec and the
+ * GC profiler's {@code gc.alloc.rate.norm} as bytes allocated per file:
+ * <ul>
+ *   <li>{@code scoreBatch}: parse and score, {@value #BATCH} files per javac task, as Main does;
+ *   <li>{@code scoreFile}: parse and score, one javac task per file;
+ *   <li>{@code scoreParsed}: score already parsed trees, i.e. the metric walk alone.
+ * </ul>
+ *
+ * <p>Usage: {@code mvn -P jmh package && java -jar target/benchmarks.jar [JMH options]},
+ * from this folder or with {@code -p corpus=path/to/Generated-Test-Suite-Compilable}.
+ * The GC profiler is always on, so every run reports the allocation rate.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class ScoringBenchmark {
+
+    static final int BATCH = 64;
+
+    @Param("../../LLM-Generated-Test-Suite/Generated-Test-Suite-Compilable")
+    public String corpus;
+
+    private List<String> sources;
+    private CctrEngine engine;
+    private int next;
+
+    private List<CompilationUnitTree> parsed;
+    private SourcePositions positions;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        Path root = Paths.get(corpus);
+        sources = new ArrayList<>();
+        for (Path file : Main.testSources(root)) {
+            sources.add(Main.read(file));
+        }
+        if (sources.isEmpty()) {
+            throw new IllegalStateException("No test sources under " + root.toAbsolutePath());
+        }
+        engine = new CctrEngine();
+
+        List<JavaFileObject> units = new ArrayList<>(sources.size());
+        for (int i = 0; i < sources.size(); i++) {
+            String text = sources.get(i);
+            units.add(new SimpleJavaFileObject(URI.create("string:///Source" + i + ".java"), JavaFileObject.Kind.SOURCE) {
+                @Override
+                public CharSequence getCharContent(boolean ignoreEncodingErrors) {
+                    return text;
+                }
+            });
+        }
+        JavacTask task = (JavacTask) ToolProvider.getSystemJavaCompiler().getTask(
+                null, null, diagnostic -> { }, List.of("-proc:none", "-XDallowStringFolding=false"), null, units);
+        parsed = new ArrayList<>();
+        task.parse().forEach(parsed::add);
+        positions = Trees.instance(task).getSourcePositions();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        engine.close();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public List<Scores> scoreBatch() {
+        int start = next;
+        next = (next + BATCH) % sources.size();
+        List<String> batch = new ArrayList<>(BATCH);
+        for (int i = 0; i < BATCH; i++) {
+            batch.add(sources.get((start + i) % sources.size()));
+        }
+        return engine.scoreAll(batch);
+    }
+
+    @Benchmark
+    public Scores scoreFile() {
+        String source = sources.get(next);
+        next = (next + 1) % sources.size();
+        return engine.score(source);
+    }
+
+    @Benchmark
+    public Scores scoreParsed() {
+        CompilationUnitTree unit = parsed.get(next);
+        next = (next + 1) % parsed.size();
+        return CctrEngine.score(unit, positions, null);
+    }
+
+    public static void main(String[] args) throws RunnerException, CommandLineOptionException {
+        new Runner(new OptionsBuilder()
+                .parent(new CommandLineOptions(args))
+                .include(ScoringBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .build()).run();
+    }
+}
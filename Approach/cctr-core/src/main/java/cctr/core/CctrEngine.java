@@ -0,0 +1,135 @@
+package cctr.core;
+
+import com.sun.source.tree.CompilationUnitTree;
+import com.sun.source.util.JavacTask;
+import com.sun.source.util.SourcePositions;
+import com.sun.source.util.Trees;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import javax.tools.Diagnostic;
+import javax.tools.JavaCompiler;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.ToolProvider;
+
+/**
+ * Sonar and test-aware cognitive complexity of Java sources, parsed with the
+ * JDK Compiler Tree API.
+ *
+ * <p>Sources are parsed only (no symbol resolution, no classpath), so any file
+ * javac can parse is scored, whether or not its dependencies are around. A
+ * batch given to {@link #scoreAll} is parsed by a single javac task, which
+ * amortises the compiler set-up over the batch. Scores are those of
+ * {@code complexity_engine.compute_metrics} on the same text.
+ *
+ * <p>An engine is not thread-safe; use one per thread.
+ */
+public final class CctrEngine implements AutoCloseable {
+
+    /** String folding would merge {@code "a" + "b"} into one literal, dropping a binary expression. */
+    private static final List<String> OPTIONS = List.of("-proc:none", "-XDallowStringFolding=false");
+
+    private final JavaCompiler compiler;
+    private final StandardJavaFileManager fileManager;
+    private final String methodName;
+
+    public CctrEngine() {
+        this(null);
+    }
+
+    /**
+     * @param methodName name whose calls count as recursion (the reference's
+     *                   {@code method_name}), or null
+     */
+    public CctrEngine(String methodName) {
+        this.compiler = ToolProvider.getSystemJavaCompiler();
+        if (compiler == null) {
+            throw new IllegalStateException("No system Java compiler; run on a JDK, not a JRE");
+        }
+        this.fileManager = compiler.getStandardFileManager(null, null, StandardCharsets.UTF_8);
+        this.methodName = methodName == null || methodName.isEmpty() ? null : methodName;
+    }
+
+    /** Scores of one source, or null if javac cannot parse it. */
+    public Scores score(String source) {
+        return scoreAll(List.of(source)).get(0);
+    }
+
+    /** Scores of each source, in order; null for the sources javac cannot parse. */
+    public List<Scores> scoreAll(List<String> sources) {
+        // javac hands back wrappers of the file objects; they are matched by URI
+        Map<URI, Source> units = new LinkedHashMap<>();
+        for (int i = 0; i < sources.size(); i++) {
+            Source source = new Source(i, sources.get(i));
+            units.put(source.toUri(), source);
+        }
+        Set<URI> failed = new HashSet<>();
+        JavacTask task = (JavacTask) compiler.getTask(null, fileManager, diagnostic -> {
+            if (diagnostic.getKind() == Diagnostic.Kind.ERROR && diagnostic.getSource() != null) {
+                failed.add(diagnostic.getSource().toUri());
+            }
+        }, OPTIONS, null, units.values());
+        Iterable<? extends CompilationUnitTree> trees;
+        try {
+            trees = task.parse();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        SourcePositions positions = Trees.instance(task).getSourcePositions();
+        List<Scores> scores = new ArrayList<>(Collections.nCopies(sources.size(), null));
+        for (CompilationUnitTree unit : trees) {
+            URI uri = unit.getSourceFile().toUri();
+            Source source = units.get(uri);
+            if (!failed.contains(uri)) {
+                scores.set(source.position, new ComplexityScanner(unit, positions, source.text, methodName).score());
+            }
+        }
+        return scores;
+    }
+
+    /**
+     * Scores of a compilation unit parsed by a caller's own javac task; end
+     * positions must be available, as they are for {@link JavacTask#parse()}.
+     */
+    public static Scores score(CompilationUnitTree unit, SourcePositions positions, String methodName) {
+        String source;
+        try {
+            source = unit.getSourceFile().getCharContent(true).toString();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return new ComplexityScanner(unit, positions, source,
+                methodName == null || methodName.isEmpty() ? null : methodName).score();
+    }
+
+    @Override
+    public void close() throws IOException {
+        fileManager.close();
+    }
+
+    /** In-memory source; the name only shows in javac diagnostics. */
+    private static final class Source extends SimpleJavaFileObject {
+        final int position;
+        final String text;
+
+        Source(int position, String text) {
+            super(URI.create("string:///Source" + position + ".java"), Kind.SOURCE);
+            this.position = position;
+            this.text = text;
+        }
+
+        @Override
+        public CharSequence getCharContent(boolean ignoreEncodingErrors) {
+            return text;
+        }
+    }
+}
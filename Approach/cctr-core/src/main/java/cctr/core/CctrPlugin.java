@@ -0,0 +1,158 @@
+package cctr.core;
+
+import com.sun.source.tree.ClassTree;
+import com.sun.source.tree.CompilationUnitTree;
+import com.sun.source.util.JavacTask;
+import com.sun.source.util.Plugin;
+import com.sun.source.util.TaskEvent;
+import com.sun.source.util.TaskListener;
+import com.sun.source.util.Trees;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.util.Elements;
+
+/**
+ * javac plugin writing the metrics of every compiled top-level class next to
+ * its class file, from the trees the compilation builds anyway.
+ *
+ * <p>Each class is measured once javac has attributed it (the ANALYZE event,
+ * before desugaring rewrites the tree) and its {@code Name.cctr.csv} is
+ * written when its class file is generated, so failed compilations leave no
+ * metrics behind. Sources javac compiles implicitly from the classpath or
+ * source path are not measured: only the files parsed before the first ENTER
+ * event, i.e. those named on the command line, are. The rows are described in
+ * {@link ClassMetrics}; Sonar and TestAware equal complexity_engine.py's.
+ * <pre>
+ *   File,Class,Name,Kind,Start Line,End Line,Tests,Sonar,TestAware,Cyclomatic,Assertions,Mockito Calls
+ * </pre>
+ *
+ * <p>Usage: {@code javac -cp cctr-core.jar:... -Xplugin:CCTR -XDallowStringFolding=false Files.java},
+ * with {@code -Xplugin:"CCTR out=DIR"} when classes go to {@code -d DIR}
+ * rather than next to their sources. Without {@code -XDallowStringFolding=false}
+ * javac merges {@code "a" + "b"} into one literal before the plugin sees it.
+ */
+public final class CctrPlugin implements Plugin, TaskListener {
+
+    public static final String NAME = "CCTR";
+    public static final String SUFFIX = ".cctr.csv";
+    static final String HEADER =
+            "File,Class,Name,Kind,Start Line,End Line,Tests,Sonar,TestAware,Cyclomatic,Assertions,Mockito Calls";
+
+    private Trees trees;
+    private Elements elements;
+    private Path outputDir;
+    private boolean entered;
+    private CompilationUnitTree sourceUnit;
+    private String source;
+    private final Set<URI> roots = new HashSet<>();
+    private final Map<TypeElement, List<ClassMetrics.Row>> measured = new HashMap<>();
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    @Override
+    public void init(JavacTask task, String... args) {
+        for (String arg : args) {
+            if (arg.startsWith("out=")) {
+                outputDir = Paths.get(arg.substring("out=".length()));
+            } else {
+                throw new IllegalArgumentException("Unknown " + NAME + " plugin option: " + arg);
+            }
+        }
+        trees = Trees.instance(task);
+        elements = task.getElements();
+        task.addTaskListener(this);
+    }
+
+    @Override
+    public void started(TaskEvent event) {
+        if (event.getKind() == TaskEvent.Kind.ENTER) {
+            entered = true;
+        }
+    }
+
+    @Override
+    public void finished(TaskEvent event) {
+        switch (event.getKind()) {
+            case PARSE -> {
+                if (!entered) {
+                    roots.add(event.getSourceFile().toUri());
+                }
+            }
+            case ANALYZE -> {
+                TypeElement type = event.getTypeElement();
+                CompilationUnitTree unit = event.getCompilationUnit();
+                ClassTree tree = type != null ? trees.getTree(type) : null;
+                if (tree != null && unit != null && roots.contains(unit.getSourceFile().toUri())) {
+                    if (unit != sourceUnit) {
+                        sourceUnit = unit;
+                        source = source(unit);
+                    }
+                    measured.put(type, new ClassMetrics(trees, elements, unit, source).rows(tree));
+                }
+            }
+            case GENERATE -> {
+                List<ClassMetrics.Row> rows = measured.remove(event.getTypeElement());
+                if (rows != null) {
+                    write(event.getCompilationUnit(), event.getTypeElement(), rows);
+                }
+            }
+            default -> {
+            }
+        }
+    }
+
+    private void write(CompilationUnitTree unit, TypeElement type, List<ClassMetrics.Row> rows) {
+        URI uri = unit.getSourceFile().toUri();
+        String binaryName = elements.getBinaryName(type).toString();
+        String simpleName = binaryName.substring(binaryName.lastIndexOf('.') + 1);
+        String file = uri.getPath().substring(uri.getPath().lastIndexOf('/') + 1);
+        Path dir;
+        if (outputDir != null) {
+            int packageEnd = binaryName.lastIndexOf('.');
+            dir = packageEnd < 0 ? outputDir : outputDir.resolve(binaryName.substring(0, packageEnd).replace('.', '/'));
+        } else if ("file".equals(uri.getScheme())) {
+            // Without -d javac writes the class file next to its source
+            dir = Paths.get(uri).getParent();
+        } else {
+            return;  // in-memory source and no out= directory
+        }
+        try {
+            Files.createDirectories(dir);
+            try (Writer out = Files.newBufferedWriter(dir.resolve(simpleName + SUFFIX), StandardCharsets.UTF_8)) {
+                out.write(HEADER + "\n");
+                for (ClassMetrics.Row row : rows) {
+                    out.write(String.join(",", file, simpleName, row.name(), row.kind(),
+                            Long.toString(row.startLine()), Long.toString(row.endLine()), Integer.toString(row.tests()),
+                            Long.toString(row.scores().sonar()), Long.toString(row.scores().testAware()),
+                            Integer.toString(row.cyclomatic()), Integer.toString(row.assertions()),
+                            Integer.toString(row.mockitoCalls())) + "\n");
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static String source(CompilationUnitTree unit) {
+        try {
+            return unit.getSourceFile().getCharContent(true).toString();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
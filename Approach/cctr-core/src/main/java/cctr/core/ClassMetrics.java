@@ -0,0 +1,169 @@
+package cctr.core;
+
+import com.sun.source.tree.CaseTree;
+import com.sun.source.tree.ClassTree;
+import com.sun.source.tree.CompilationUnitTree;
+import com.sun.source.tree.LineMap;
+import com.sun.source.tree.MethodInvocationTree;
+import com.sun.source.tree.MethodTree;
+import com.sun.source.tree.Tree;
+import com.sun.source.util.SourcePositions;
+import com.sun.source.util.TreePath;
+import com.sun.source.util.TreePathScanner;
+import com.sun.source.util.Trees;
+import java.util.ArrayList;
+import java.util.List;
+import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.util.Elements;
+
+/**
+ * Metrics of an attributed top-level class, one {@link Row} for the class and
+ * one per outermost method or constructor, as the per-method rows of
+ * get-cognitive_LLM.py: methods of local and anonymous classes count towards
+ * the method enclosing them, methods of member classes get rows of their own.
+ *
+ * <p>Sonar and CCTR come from {@link ComplexityScanner}, so a class row holds
+ * the scores complexity_engine.py gives its source. The attributed tree adds
+ * what text matching cannot tell:
+ * <ul>
+ *   <li>cyclomatic complexity, 1 + decision points (if, loops, non-default case
+ *       labels, catch, ?:, &amp;&amp;, ||) per method, summed for the class;
+ *   <li>assertions: calls resolving to an {@code assert*} or {@code fail}
+ *       method of JUnit, Hamcrest, AssertJ or Truth;
+ *   <li>Mockito calls: calls resolving to a method declared in {@code org.mockito};
+ *   <li>tests: methods carrying a JUnit 4 or 5 test annotation.
+ * </ul>
+ * Constructors javac adds to classes declaring none are skipped.
+ */
+final class ClassMetrics extends TreePathScanner<Void, Void> {
+
+    private static final String[] ASSERTION_PACKAGES = {
+        "org.junit.", "junit.framework.", "org.hamcrest.", "org.assertj.", "com.google.common.truth."};
+    private static final List<String> TEST_ANNOTATIONS = List.of(
+            "org.junit.Test", "org.junit.jupiter.api.Test", "org.junit.jupiter.api.RepeatedTest",
+            "org.junit.jupiter.api.TestFactory", "org.junit.jupiter.api.TestTemplate",
+            "org.junit.jupiter.params.ParameterizedTest");
+
+    /** One line of a metrics file; the class row sums the cyclomatic, call and test counts of its methods. */
+    record Row(String name, String kind, long startLine, long endLine, int tests, Scores scores,
+               int cyclomatic, int assertions, int mockitoCalls) {
+    }
+
+    private final Trees trees;
+    private final Elements elements;
+    private final CompilationUnitTree unit;
+    private final SourcePositions positions;
+    private final ComplexityScanner scanner;
+    private final List<Row> methods = new ArrayList<>();
+
+    private MethodTree method;
+    private int cyclomatic;
+    private int assertions;
+    private int mockitoCalls;
+
+    ClassMetrics(Trees trees, Elements elements, CompilationUnitTree unit, String source) {
+        this.trees = trees;
+        this.elements = elements;
+        this.unit = unit;
+        this.positions = trees.getSourcePositions();
+        this.scanner = new ComplexityScanner(unit, positions, source, null);
+    }
+
+    /** The class row followed by the method rows, in source order. */
+    List<Row> rows(ClassTree tree) {
+        scan(new TreePath(new TreePath(unit), tree), null);
+        List<Row> rows = new ArrayList<>(methods.size() + 1);
+        rows.add(new Row(tree.getSimpleName().toString(), "class", line(positions.getStartPosition(unit, tree)),
+                line(positions.getEndPosition(unit, tree)), methods.stream().mapToInt(Row::tests).sum(),
+                scanner.score(tree), methods.stream().mapToInt(Row::cyclomatic).sum(),
+                methods.stream().mapToInt(Row::assertions).sum(), methods.stream().mapToInt(Row::mockitoCalls).sum()));
+        rows.addAll(methods);
+        return rows;
+    }
+
+    @Override
+    public Void visitMethod(MethodTree tree, Void unused) {
+        if (method != null) {
+            return super.visitMethod(tree, unused);
+        }
+        Element element = trees.getElement(getCurrentPath());
+        if (element != null && elements.getOrigin(element) == Elements.Origin.MANDATED) {
+            return null;
+        }
+        method = tree;
+        cyclomatic = 1;
+        assertions = 0;
+        mockitoCalls = 0;
+        super.visitMethod(tree, unused);
+        boolean constructor = element != null ? element.getKind() == ElementKind.CONSTRUCTOR
+                : tree.getReturnType() == null;
+        methods.add(new Row(tree.getName().toString(), constructor ? "constructor" : "method",
+                line(positions.getStartPosition(unit, tree)), line(positions.getEndPosition(unit, tree)),
+                isTest(element) ? 1 : 0, scanner.score(tree), cyclomatic, assertions, mockitoCalls));
+        method = null;
+        return null;
+    }
+
+    @Override
+    public Void scan(Tree tree, Void unused) {
+        if (tree != null && method != null) {
+            switch (tree.getKind()) {
+                case IF, FOR_LOOP, ENHANCED_FOR_LOOP, WHILE_LOOP, DO_WHILE_LOOP, CATCH,
+                        CONDITIONAL_EXPRESSION, CONDITIONAL_AND, CONDITIONAL_OR -> cyclomatic++;
+                case CASE -> cyclomatic += ((CaseTree) tree).getExpressions().size();
+                default -> {
+                }
+            }
+        }
+        return super.scan(tree, unused);
+    }
+
+    @Override
+    public Void visitMethodInvocation(MethodInvocationTree tree, Void unused) {
+        if (method != null) {
+            Element callee = trees.getElement(getCurrentPath());
+            if (callee != null && callee.getEnclosingElement() instanceof TypeElement owner) {
+                String ownerName = owner.getQualifiedName().toString();
+                String name = callee.getSimpleName().toString();
+                if ((name.startsWith("assert") || name.equals("fail")) && startsWithAny(ownerName, ASSERTION_PACKAGES)) {
+                    assertions++;
+                }
+                if (ownerName.startsWith("org.mockito.")) {
+                    mockitoCalls++;
+                }
+            }
+        }
+        return super.visitMethodInvocation(tree, unused);
+    }
+
+    private static boolean isTest(Element element) {
+        if (element == null) {
+            return false;
+        }
+        for (AnnotationMirror annotation : element.getAnnotationMirrors()) {
+            Element type = annotation.getAnnotationType().asElement();
+            if (type instanceof TypeElement typeElement
+                    && TEST_ANNOTATIONS.contains(typeElement.getQualifiedName().toString())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean startsWithAny(String value, String[] prefixes) {
+        for (String prefix : prefixes) {
+            if (value.startsWith(prefix)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private long line(long position) {
+        LineMap lines = unit.getLineMap();
+        return position < 0 || lines == null ? -1 : lines.getLineNumber(position);
+    }
+}
@@ -0,0 +1,188 @@
+package cctr.core;
+
+import com.sun.source.tree.AnnotationTree;
+import com.sun.source.tree.BinaryTree;
+import com.sun.source.tree.CompilationUnitTree;
+import com.sun.source.tree.ExpressionTree;
+import com.sun.source.tree.IdentifierTree;
+import com.sun.source.tree.MemberSelectTree;
+import com.sun.source.tree.MethodInvocationTree;
+import com.sun.source.tree.ModifiersTree;
+import com.sun.source.tree.Tree;
+import com.sun.source.tree.VariableTree;
+import com.sun.source.util.SourcePositions;
+import com.sun.source.util.TreeScanner;
+
+/**
+ * One walk over a javac tree scoring Sonar and test-aware cognitive complexity
+ * exactly as complexity_engine.py scores the tree-sitter tree of the same source.
+ *
+ * <p>The reference calculators analyse the children of a control-flow node
+ * twice, once nested and once at the enclosing level; as in the Python engine
+ * those walks are summarised by a (count, nesting) frame, so each node is
+ * visited once. The node kinds map one to one:
+ * <pre>
+ *   if_statement, for_statement,      IF, FOR_LOOP, WHILE_LOOP,
+ *   while_statement, do_statement,    DO_WHILE_LOOP, CATCH
+ *   catch_clause
+ *   binary_expression                 every BinaryTree
+ *   labeled_statement                 LABELED_STATEMENT
+ *   method_invocation                 METHOD_INVOCATION but this(...) / super(...)
+ *   annotation                        ANNOTATION with an argument list; "@Test"
+ *                                     alone is a marker_annotation, not scored
+ * </pre>
+ * Enhanced for loops and switches are not scored: tree-sitter-java has no
+ * {@code switch_statement} node, so the reference never counts them either.
+ * Substring tests run on the source span of the node, comments included.
+ */
+final class ComplexityScanner extends TreeScanner<Void, Void> {
+
+    private static final String[] JUMP_KEYWORDS = {"break", "continue", "goto"};
+    private static final String[] MOCK_CALLS = {"mock(", "when(", "verify("};
+
+    private final CompilationUnitTree unit;
+    private final SourcePositions positions;
+    private final SourceIndex index;
+    private final String methodName;
+
+    private long count = 1;
+    private long nesting;
+    private long sonar;
+    private long testAware;
+    private VariableTree previousVariable;
+
+    ComplexityScanner(CompilationUnitTree unit, SourcePositions positions, String source, String methodName) {
+        this.unit = unit;
+        this.positions = positions;
+        this.index = new SourceIndex(source);
+        this.methodName = methodName;
+    }
+
+    Scores score() {
+        return score(unit);
+    }
+
+    /** Scores of a subtree of the unit (a class, a method) walked on its own from the top-level frame. */
+    Scores score(Tree tree) {
+        count = 1;
+        nesting = 0;
+        sonar = 0;
+        testAware = 0;
+        previousVariable = null;
+        scan(tree, null);
+        return new Scores(sonar, testAware);
+    }
+
+    @Override
+    public Void scan(Tree tree, Void unused) {
+        if (tree == null) {
+            return null;
+        }
+        switch (tree.getKind()) {
+            case IF, FOR_LOOP, WHILE_LOOP, DO_WHILE_LOOP, CATCH -> {
+                // +1 plus nesting per walk; children are walked at nesting + 1 and again at nesting
+                sonar += count + nesting;
+                testAware += count + nesting;
+                long enclosingCount = count;
+                long enclosingNesting = nesting;
+                count = 2 * enclosingCount;
+                nesting = 2 * enclosingNesting + enclosingCount;
+                try {
+                    return super.scan(tree, unused);
+                } finally {
+                    count = enclosingCount;
+                    nesting = enclosingNesting;
+                }
+            }
+            case METHOD_INVOCATION -> {
+                MethodInvocationTree call = (MethodInvocationTree) tree;
+                if (!isConstructorCall(call)) {
+                    int recursive = contains(tree, methodName) ? 1 : 0;
+                    int points = recursive;
+                    if (containsAny(tree, MOCK_CALLS)) {
+                        points++;  // mocking complexity
+                    }
+                    if (contains(tree, "assert") || contains(tree, "fail(")) {
+                        points++;  // assertion logic
+                    }
+                    sonar += count * recursive;
+                    testAware += count * points;
+                }
+            }
+            case ANNOTATION, TYPE_ANNOTATION -> {
+                AnnotationTree annotation = (AnnotationTree) tree;
+                if (end(annotation) > end(annotation.getAnnotationType())) {
+                    testAware += count * annotationPoints(tree);
+                }
+            }
+            case LABELED_STATEMENT -> {
+                if (containsAny(tree, JUMP_KEYWORDS)) {
+                    sonar += count;
+                    testAware += count;
+                }
+            }
+            default -> {
+                if (tree instanceof BinaryTree && (contains(tree, "&&") || contains(tree, "||"))) {
+                    sonar += count;
+                    testAware += count;
+                }
+            }
+        }
+        return super.scan(tree, unused);
+    }
+
+    /**
+     * "int a, b;" is parsed into one variable per name sharing the modifiers and
+     * type trees; like the single declaration tree-sitter sees, they are scanned once.
+     */
+    @Override
+    public Void visitVariable(VariableTree tree, Void unused) {
+        VariableTree previous = previousVariable;
+        ModifiersTree modifiers = tree.getModifiers();
+        if (previous == null || previous.getModifiers() != modifiers) {
+            scan(modifiers, unused);
+        }
+        if (previous == null || previous.getType() != tree.getType()) {
+            scan(tree.getType(), unused);
+        }
+        scan(tree.getNameExpression(), unused);
+        scan(tree.getInitializer(), unused);
+        previousVariable = tree;
+        return null;
+    }
+
+    private int annotationPoints(Tree annotation) {
+        if (contains(annotation, "@Test")) {
+            return 1;
+        }
+        if (contains(annotation, "@ParameterizedTest")) {
+            return 2;
+        }
+        return contains(annotation, "@BeforeEach") || contains(annotation, "@AfterEach") ? 1 : 0;
+    }
+
+    /** this(...) and super(...) are explicit_constructor_invocation nodes in tree-sitter. */
+    private static boolean isConstructorCall(MethodInvocationTree call) {
+        ExpressionTree select = call.getMethodSelect();
+        CharSequence name = select instanceof IdentifierTree identifier ? identifier.getName()
+                : select instanceof MemberSelectTree member ? member.getIdentifier() : "";
+        return name.toString().equals("this") || name.toString().equals("super");
+    }
+
+    private long end(Tree tree) {
+        return positions.getEndPosition(unit, tree);
+    }
+
+    private boolean contains(Tree tree, String needle) {
+        return needle != null && index.contains(positions.getStartPosition(unit, tree), end(tree), needle);
+    }
+
+    private boolean containsAny(Tree tree, String[] needles) {
+        for (String needle : needles) {
+            if (contains(tree, needle)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
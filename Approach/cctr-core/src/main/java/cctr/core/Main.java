@@ -0,0 +1,120 @@
+package cctr.core;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.ByteBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Scores Java files and prints one tab-separated line per file:
+ * <pre>
+ *   path  sonar  testaware
+ *   path  ERROR  reason
+ * </pre>
+ * A directory argument stands for its test sources ({@code .java}, scaffolding
+ * excluded) in the order of {@code corpus_archive.walk_files}, printed relative
+ * to it with {@code /} separators; a file argument is printed as given. The
+ * output is what check_cctr_core.py compares with the Python engine.
+ *
+ * <p>Usage: {@code java -jar cctr-core.jar [--method name] [--batch n] path ...}
+ */
+public final class Main {
+
+    private static final int DEFAULT_BATCH = 256;
+
+    private Main() {
+    }
+
+    public static void main(String[] args) throws IOException {
+        String methodName = null;
+        int batch = DEFAULT_BATCH;
+        List<String[]> files = new ArrayList<>();  // {printed name, path}
+        for (int i = 0; i < args.length; i++) {
+            if ("--method".equals(args[i]) && i + 1 < args.length) {
+                methodName = args[++i];
+            } else if ("--batch".equals(args[i]) && i + 1 < args.length) {
+                batch = Integer.parseInt(args[++i]);
+            } else if (Files.isDirectory(Paths.get(args[i]))) {
+                Path root = Paths.get(args[i]);
+                for (Path file : testSources(root)) {
+                    files.add(new String[] {root.relativize(file).toString().replace('\\', '/'), file.toString()});
+                }
+            } else {
+                files.add(new String[] {args[i], args[i]});
+            }
+        }
+        if (files.isEmpty()) {
+            System.err.println("Usage: java -jar cctr-core.jar [--method name] [--batch n] path ...");
+            System.exit(1);
+        }
+
+        PrintWriter out = new PrintWriter(System.out, false, StandardCharsets.UTF_8);
+        try (CctrEngine engine = new CctrEngine(methodName)) {
+            for (int start = 0; start < files.size(); start += batch) {
+                List<String[]> chunk = files.subList(start, Math.min(start + batch, files.size()));
+                List<String> sources = new ArrayList<>(chunk.size());
+                List<String> errors = new ArrayList<>(chunk.size());
+                for (String[] file : chunk) {
+                    try {
+                        sources.add(read(Paths.get(file[1])));
+                        errors.add(null);
+                    } catch (IOException e) {
+                        sources.add("");
+                        errors.add(e instanceof CharacterCodingException ? "not UTF-8" : e.toString());
+                    }
+                }
+                List<Scores> scores = engine.scoreAll(sources);
+                for (int i = 0; i < chunk.size(); i++) {
+                    String name = chunk.get(i)[0];
+                    Scores score = scores.get(i);
+                    if (errors.get(i) != null || score == null) {
+                        out.println(name + "\tERROR\t" + (errors.get(i) != null ? errors.get(i) : "syntax error"));
+                    } else {
+                        out.println(name + "\t" + score.sonar() + "\t" + score.testAware());
+                    }
+                }
+                out.flush();
+            }
+        }
+    }
+
+    /** Strict UTF-8, as the Python stages open the files. */
+    static String read(Path file) throws IOException {
+        return StandardCharsets.UTF_8.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPORT)
+                .onUnmappableCharacter(CodingErrorAction.REPORT)
+                .decode(ByteBuffer.wrap(Files.readAllBytes(file)))
+                .toString();
+    }
+
+    /** Test sources under root: each directory's files sorted, then its subdirectories sorted (os.walk order). */
+    static List<Path> testSources(Path root) throws IOException {
+        List<Path> found = new ArrayList<>();
+        List<Path> entries;
+        try (Stream<Path> list = Files.list(root)) {
+            entries = list.sorted((a, b) -> a.getFileName().toString().compareTo(b.getFileName().toString()))
+                    .collect(Collectors.toList());
+        }
+        for (Path entry : entries) {
+            String name = entry.getFileName().toString();
+            if (!Files.isDirectory(entry) && name.endsWith(".java") && !name.contains("scaffolding")) {
+                found.add(entry);
+            }
+        }
+        for (Path entry : entries) {
+            if (Files.isDirectory(entry)) {
+                found.addAll(testSources(entry));
+            }
+        }
+        return found;
+    }
+}
@@ -0,0 +1,9 @@
+package cctr.core;
+
+/**
+ * Sonar cognitive complexity and test-aware cognitive complexity (CCTR) of a
+ * compilation unit, as {@code compute_metrics(code, ("sonar", "testaware"))}
+ * returns them.
+ */
+public record Scores(long sonar, long testAware) {
+}
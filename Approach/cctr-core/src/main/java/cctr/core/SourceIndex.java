@@ -0,0 +1,49 @@
+package cctr.core;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Offsets of the substrings the metrics look for, as in complexity_engine.py.
+ *
+ * <p>"Does this node contain X" is a binary search over the offsets of X in
+ * the whole source, so no node text is ever extracted. Occurrences may
+ * overlap, like {@code bytes.find(needle, pos + 1)} finds them.
+ */
+final class SourceIndex {
+
+    private final String source;
+    private final Map<String, int[]> offsets = new HashMap<>();
+
+    SourceIndex(String source) {
+        this.source = source;
+    }
+
+    private int[] offsets(String needle) {
+        int[] found = offsets.get(needle);
+        if (found == null) {
+            found = new int[8];
+            int size = 0;
+            for (int pos = source.indexOf(needle); pos != -1; pos = source.indexOf(needle, pos + 1)) {
+                if (size == found.length) {
+                    found = Arrays.copyOf(found, size * 2);
+                }
+                found[size++] = pos;
+            }
+            found = Arrays.copyOf(found, size);
+            offsets.put(needle, found);
+        }
+        return found;
+    }
+
+    /** Whether {@code needle} occurs entirely inside [start, end). */
+    boolean contains(long start, long end, String needle) {
+        int[] found = offsets(needle);
+        int i = Arrays.binarySearch(found, (int) start);
+        if (i < 0) {
+            i = -i - 1;
+        }
+        return i < found.length && found[i] + needle.length() <= end;
+    }
+}
@@ -0,0 +1,65 @@
+"""Check the Java engine (cctr-core/) against complexity_engine.py on a whole corpus.
+
+Runs the cctr-core jar over a directory and compares its Sonar and CCTR score
+of every test source with compute_metrics() on the same file; any difference,
+or a file only one side could score, is reported and fails the check.
+
+Usage:
+  (cd cctr-core && mvn -B package)
+  python3 check_cctr_core.py [--root DIR] [--method NAME]
+"""
+import os
+import sys
+import argparse
+import subprocess
+from complexity_engine import compute_metrics
+from corpus_archive import walk_files
+
+SCRIPT_DIR = os.path.dirname(os.path.abspath(__file__))
+DEFAULT_ROOT = os.path.join(SCRIPT_DIR, "..", "LLM-Generated-Test-Suite", "Generated-Test-Suite-Compilable")
+CCTR_CORE_JAR = os.path.join(SCRIPT_DIR, "cctr-core", "target", "cctr-core-1.0-SNAPSHOT.jar")
+
+def python_scores(root, method_name=None):
+    """{relative path: (sonar, testaware) or None} from the Python engine."""
+    scores = {}
+    for path in walk_files(root):
+        if not path.endswith(".java") or "scaffolding" in os.path.basename(path):
+            continue
+        try:
+            with open(os.path.join(root, path), 'r', encoding='utf-8') as f:
+                metrics = compute_metrics(f.read(), ("sonar", "testaware"), method_name)
+            scores[path] = (metrics["sonar"], metrics["testaware"])
+        except Exception:
+            scores[path] = None
+    return scores
+
+def java_scores(root, jar=CCTR_CORE_JAR, method_name=None):
+    """{relative path: (sonar, testaware) or None} from the cctr-core jar."""
+    command = ["java", "-jar", jar, root] + (["--method", method_name] if method_name else [])
+    output = subprocess.run(command, stdout=subprocess.PIPE, check=True, text=True, encoding="utf-8").stdout
+    scores = {}
+    for line in output.splitlines():
+        path, sonar, testaware = line.split("\t")
+        scores[path] = None if sonar == "ERROR" else (int(sonar), int(testaware))
+    return scores
+
+def main():
+    arg_parser = argparse.ArgumentParser(description="Compare the cctr-core Java engine with complexity_engine.py")
+    arg_parser.add_argument("--root", default=DEFAULT_ROOT, help="directory of test sources (default: %(default)s)")
+    arg_parser.add_argument("--jar", default=CCTR_CORE_JAR)
+    arg_parser.add_argument("--method", help="method name whose calls count as recursion")
+    args = arg_parser.parse_args()
+    if not os.path.isfile(args.jar):
+        sys.exit(f"{args.jar} not found; build it with: (cd cctr-core && mvn -B package)")
+
+    expected = python_scores(args.root, args.method)
+    actual = java_scores(args.root, args.jar, args.method)
+    mismatches = [(path, expected.get(path), actual.get(path))
+                  for path in sorted(set(expected) | set(actual)) if expected.get(path) != actual.get(path)]
+    for path, python, java in mismatches:
+        print(f"{path}: python {python}, java {java}")
+    print(f"{len(expected)} files, {len(mismatches)} mismatches")
+    sys.exit(1 if mismatches else 0)
+
+if __name__ == "__main__":
+    main()
@@ -3,17 +3,16 @@ import subprocess
 import xml.etree.ElementTree as ET
 import re
 import csv
+import tempfile
 from pathlib import Path
-from tree_sitter import Language, Parser
-import tree_sitter_java as tsjava
-
-# === Tree-sitter Java Initialization ===
-JAVA_LANGUAGE = Language(tsjava.language())
-parser = Parser(JAVA_LANGUAGE)
+from complexity_engine import compute_metrics, ENGINE_VERSION
+from rsm_client import ReadabilityClient
+from result_cache import ResultCache, version_key, install_version
 
 # === Resource Paths ===
 SCRIPT_DIR = os.path.dirname(os.path.abspath(__file__))
-PMD_BIN = os.path.join(SCRIPT_DIR, "pmd-bin-7.0.0-rc4", "bin", "pmd")
+PMD_HOME = os.path.join(SCRIPT_DIR, "pmd-bin-7.0.0-rc4")
+PMD_BIN = os.path.join(PMD_HOME, "bin", "pmd")
 RULESET_COG = os.path.join(SCRIPT_DIR, "rulesets", "cognitive_ruleset.xml")
 RULESET_CYCLO = os.path.join(SCRIPT_DIR, "rulesets", "cyclomatic_ruleset.xml")
 RSM_DIR = os.path.join(SCRIPT_DIR, "readability_model")
@@ -22,96 +21,25 @@ RSM_JAR = os.path.join(RSM_DIR, "rsm.jar")
 OUTPUT_CSV = os.path.join(SCRIPT_DIR, "outputs", "complexity_summary.csv")
 os.makedirs(os.path.dirname(OUTPUT_CSV), exist_ok=True)
 
-# === Sonar Cognitive Complexity Calculator ===
-class CognitiveComplexityCalculatorSonar:
-    def __init__(self, code, method_name=None):
-        self.code = code.encode("utf-8")
-        self.complexity = 0
-        self.nesting_level = 0
-        self.parser = parser
-        self.method_name = method_name
-
-    def compute_complexity(self):
-        tree = self.parser.parse(self.code)
-        self._analyze_node(tree.root_node)
-        return self.complexity
-
-    def _analyze_node(self, node):
-        for child in node.children:
-            kind = child.type
-            text = self.code[child.start_byte:child.end_byte].decode("utf-8")
-            if kind in ["if_statement", "for_statement", "while_statement", "do_statement", "switch_statement", "catch_clause"]:
-                self._increment(child)
-            elif kind == "binary_expression" and ("&&" in text or "||" in text):
-                self.complexity += 1
-            elif kind == "labeled_statement" and any(k in text for k in ["break", "continue", "goto"]):
-                self.complexity += 1
-            elif kind == "method_invocation" and self._is_recursive_call(text):
-                self.complexity += 1
-            self._analyze_node(child)
-
-    def _increment(self, node):
-        self.complexity += 1 + self.nesting_level
-        self.nesting_level += 1
-        self._analyze_node(node)
-        self.nesting_level -= 1
-
-    def _is_recursive_call(self, text):
-        return self.method_name and self.method_name in text
-
-# === Test-Aware Cognitive Complexity Calculator ===
-class CognitiveComplexityCalculatorTestAware:
-    def __init__(self, code, method_name=None):
-        self.code = code.encode("utf-8")
-        self.method_name = method_name
-        self.complexity = 0
-        self.nesting_level = 0
-        self.parser = parser
-
-    def compute_complexity(self):
-        tree = self.parser.parse(self.code)
-        self._analyze_node(tree.root_node)
-        return self.complexity
-
-    def _analyze_node(self, node):
-        for child in node.children:
-            kind = child.type
-            text = self.code[child.start_byte:child.end_byte].decode("utf-8")
-            if kind in ["if_statement", "for_statement", "while_statement", "do_statement", "switch_statement", "catch_clause"]:
-                self._increment(child)
-            elif kind == "binary_expression" and ("&&" in text or "||" in text):
-                self.complexity += 1
-            elif kind == "labeled_statement" and any(k in text for k in ["break", "continue", "goto"]):
-                self.complexity += 1
-            elif kind == "method_invocation":
-                if self._is_recursive_call(text):
-                    self.complexity += 1
-                if any(x in text for x in ["mock(", "when(", "verify("]):
-                    self.complexity += 1
-                if "assert" in text or "fail(" in text:
-                    self.complexity += 1
-            elif kind == "annotation":
-                if "@Test" in text:
-                    self.complexity += 1
-                elif "@ParameterizedTest" in text:
-                    self.complexity += 2
-                elif "@BeforeEach" in text or "@AfterEach" in text:
-                    self.complexity += 1
-            self._analyze_node(child)
-
-    def _increment(self, node):
-        self.complexity += 1 + self.nesting_level
-        self.nesting_level += 1
-        self._analyze_node(node)
-        self.nesting_level -= 1
-
-    def _is_recursive_call(self, text):
-        return self.method_name and self.method_name in text
+# === Result Cache Versions ===
+# Sonar and TestAware use the keys of get-cognitive_LLM.py and run_pipeline.py, so
+# those scores are shared; the PMD sums are this script's own entries, and readability
+# is shared with get-readability_LLM.py only when both load the same jar and classifier.
+# ENGINE_VERSION covers the tree-sitter packages, the PMD keys the jars PMD_HOME resolves to
+PMD_VERSION = install_version(PMD_HOME)
+PMD_COG_VERSION = version_key(PMD_VERSION, RULESET_COG)
+PMD_CYCLO_VERSION = version_key(PMD_VERSION, RULESET_CYCLO)
+RSM_VERSION = version_key(RSM_JAR, os.path.join(RSM_DIR, "readability.classifier"))
 
 # === PMD Execution and Parsing ===
 def run_pmd(java_file, ruleset, report_file):
+    """True when PMD wrote its report: exit status 0 (no violations) or 4 (violations found)."""
     command = [PMD_BIN, "check", "-d", java_file, "-R", ruleset, "-f", "xml", "-r", report_file]
-    subprocess.run(command, stdout=subprocess.PIPE, stderr=subprocess.PIPE)
+    try:
+        result = subprocess.run(command, stdout=subprocess.PIPE, stderr=subprocess.PIPE)
+    except OSError:
+        return False
+    return result.returncode in (0, 4) and os.path.isfile(report_file)
 
 def extract_complexity_value(text, rule_name):
     pattern = r"cognitive complexity of (\d+)" if rule_name == "CognitiveComplexity" else r"cyclomatic complexity of (\d+)"
@@ -126,11 +54,17 @@ def extract_pmd_complexity(report_file, rule_name):
         values = [extract_complexity_value(v.text.strip(), rule_name)
                   for v in violations if v.attrib.get('rule') == rule_name]
         return sum(values)
-    except Exception:
-        return 0
+    except (ET.ParseError, OSError):
+        return None
 
 # === Readability Score via Scalabrino RSM ===
-def compute_readability_score(java_file_path):
+def compute_readability_score(java_file_path, rsm=None):
+    if rsm is not None:
+        # Long-lived scoring server: no JVM launch nor classifier reload per file
+        try:
+            return rsm.score_file(java_file_path)
+        except Exception:
+            return None
     try:
         abs_path = os.path.abspath(java_file_path)
         result = subprocess.run(['java', '-jar', 'rsm.jar', abs_path],
@@ -149,41 +83,65 @@ def compute_readability_score(java_file_path):
         return None
 
 # === Process a Single Java File ===
-def process_java_file(file_path):
+def cached(cache, metric, version, file_path, compute):
+    """Cached result of `compute()` for the file's current content; computed and stored on a miss, unless None."""
+    value = cache.get(metric, version, [file_path]).get(file_path)
+    if value is None:
+        value = compute()
+        cache.put(metric, version, {file_path: value})
+    return value
+
+def compute_tree_sitter_scores(file_path):
     with open(file_path, 'r', encoding='utf-8') as f:
         code = f.read()
-
-    sonar = CognitiveComplexityCalculatorSonar(code).compute_complexity()
-    testaware = CognitiveComplexityCalculatorTestAware(code).compute_complexity()
-
-    tmp_cog = "tmp_pmd_cog.xml"
-    tmp_cyclo = "tmp_pmd_cyclo.xml"
-    run_pmd(file_path, RULESET_COG, tmp_cog)
-    run_pmd(file_path, RULESET_CYCLO, tmp_cyclo)
-
-    pmd_cog = extract_pmd_complexity(tmp_cog, "CognitiveComplexity")
-    cyclo = extract_pmd_complexity(tmp_cyclo, "CyclomaticComplexity")
-    readability = compute_readability_score(file_path)
+    # One parse and one traversal for both tree-sitter metrics
+    return compute_metrics(code, ("sonar", "testaware"))
+
+def compute_pmd_complexity(file_path, ruleset, rule_name):
+    """Sum of the rule's values for the file, or None (not cached) when PMD fails."""
+    # A fresh report per run: a failed run must never be scored from an earlier file's report
+    with tempfile.TemporaryDirectory(prefix="pmd_") as tmp_dir:
+        tmp_report = os.path.join(tmp_dir, "report.xml")
+        if not run_pmd(file_path, ruleset, tmp_report):
+            return None
+        return extract_pmd_complexity(tmp_report, rule_name)
+
+def process_java_file(file_path, rsm=None, cache=None):
+    cache = cache or ResultCache(None)
+    hits = {metric: cache.get(metric, ENGINE_VERSION, [file_path]).get(file_path) for metric in ("sonar", "testaware")}
+    if None in hits.values():
+        hits = compute_tree_sitter_scores(file_path)
+        for metric, score in hits.items():
+            cache.put(metric, ENGINE_VERSION, {file_path: score})
+
+    pmd_cog = cached(cache, "pmd_cog_sum", PMD_COG_VERSION, file_path,
+                     lambda: compute_pmd_complexity(file_path, RULESET_COG, "CognitiveComplexity"))
+    cyclo = cached(cache, "cyclo_sum", PMD_CYCLO_VERSION, file_path,
+                   lambda: compute_pmd_complexity(file_path, RULESET_CYCLO, "CyclomaticComplexity"))
+    readability = cached(cache, "readability", RSM_VERSION, file_path,
+                         lambda: compute_readability_score(file_path, rsm))
 
     return {
         "file": os.path.basename(file_path),
-        "sonar": sonar,
-        "testaware": testaware,
-        "pmd_cog": pmd_cog,
-        "cyclo": cyclo,
+        "sonar": hits["sonar"],
+        "testaware": hits["testaware"],
+        "pmd_cog": pmd_cog if pmd_cog is not None else "N/A",
+        "cyclo": cyclo if cyclo is not None else "N/A",
         "readability": readability if readability is not None else "N/A"
     }
 
 # === Scan and Process All Java Files in Directories ===
-def scan_and_analyze(base_dirs):
+def scan_and_analyze(base_dirs, cache=None):
     results = []
-    for base_dir in base_dirs:
-        for root, _, files in os.walk(base_dir):
-            for f in files:
-                if f.endswith(".java") and "scaffolding" not in f:
-                    path = os.path.join(root, f)
-                    result = process_java_file(path)
-                    results.append(result)
+    # The scoring server only starts on the first readability cache miss
+    with ReadabilityClient(RSM_DIR) as rsm:
+        for base_dir in base_dirs:
+            for root, _, files in os.walk(base_dir):
+                for f in files:
+                    if f.endswith(".java") and "scaffolding" not in f:
+                        path = os.path.join(root, f)
+                        result = process_java_file(path, rsm, cache)
+                        results.append(result)
     return results
 
 # === Display and Save Results ===
@@ -203,7 +161,9 @@ def save_csv(results, path):
 # === Main Execution ===
 if __name__ == "__main__":
     base_dirs = ["Deeply_Nested_Trivial_Code", "EvoSuite_Generated", "GPT_Generated"]
-    results = scan_and_analyze(base_dirs)
+    # Unchanged files are served from the shared result cache (CCTR_RESULT_CACHE overrides its path)
+    with ResultCache() as cache:
+        results = scan_and_analyze(base_dirs, cache)
     display_results(results)
     save_csv(results, OUTPUT_CSV)
     print(f"\nResults saved to {OUTPUT_CSV}")
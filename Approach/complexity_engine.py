@@ -0,0 +1,520 @@
+"""Single-pass complexity engine for Java sources.
+
+Every registered metric observes the same tree-sitter traversal, so a file is
+parsed and walked once no matter how many metrics are requested.
+iter_method_metrics() scores each method separately in that same pass.
+
+Usage: python3 complexity_engine.py FILE.java [METRIC ...]   (per-method scores)
+"""
+import sys
+import hashlib
+from bisect import bisect_left
+from collections import namedtuple
+from importlib import metadata
+from tree_sitter import Language, Parser
+import tree_sitter_java as tsjava
+from result_cache import version_key
+
+# === Tree-sitter Java Initialization ===
+JAVA_LANGUAGE = Language(tsjava.language())
+parser = Parser(JAVA_LANGUAGE)
+
+def _distribution(name):
+    try:
+        return f"{name}=={metadata.version(name)}"
+    except metadata.PackageNotFoundError:
+        return f"{name} (no metadata)"
+
+# Version of cached scores: this source and the parser packages that decide the trees it walks
+ENGINE_VERSION = version_key(__file__, _distribution("tree-sitter"), _distribution("tree-sitter-java"))
+
+def kind_ids(*names):
+    """Numeric node kinds for the given type names, so classification compares ints, not strings."""
+    return frozenset(i for i in range(JAVA_LANGUAGE.node_kind_count)
+                     if JAVA_LANGUAGE.node_kind_for_id(i) in names)
+
+CONTROL_FLOW_NODES = kind_ids(
+    "if_statement", "for_statement", "while_statement",
+    "do_statement", "switch_statement", "catch_clause"
+)
+BINARY_EXPRESSION = kind_ids("binary_expression")
+LABELED_STATEMENT = kind_ids("labeled_statement")
+METHOD_INVOCATION = kind_ids("method_invocation")
+ANNOTATION = kind_ids("annotation")
+EXPRESSION_STATEMENT = kind_ids("expression_statement")
+METHOD_DECLARATIONS = kind_ids("method_declaration", "constructor_declaration")
+
+JUMP_KEYWORDS = (b"break", b"continue", b"goto")
+MOCK_CALLS = (b"mock(", b"when(", b"verify(")
+
+# === Source Index ===
+class SourceIndex:
+    """Byte offsets of the substrings metrics look for.
+
+    The reference calculators decode every node and test substrings on its
+    text, which is quadratic in nesting depth. Here "does this node contain
+    X" is a binary search over the offsets of X in the whole file, with the
+    same answer and no per-node decoding.
+    """
+
+    def __init__(self, source):
+        self.source = source
+        self._offsets = {}
+
+    def offsets(self, needle):
+        found = self._offsets.get(needle)
+        if found is None:
+            found = []
+            pos = self.source.find(needle)
+            while pos != -1:
+                found.append(pos)
+                pos = self.source.find(needle, pos + 1)
+            self._offsets[needle] = found
+        return found
+
+    def contains(self, node, needle):
+        return self.contains_range(node.start_byte, node.end_byte, needle)
+
+    def contains_range(self, start, end, needle):
+        offsets = self.offsets(needle)
+        i = bisect_left(offsets, start)
+        return i < len(offsets) and offsets[i] + len(needle) <= end
+
+    def line(self, offset):
+        """1-based line of a byte offset."""
+        return bisect_left(self.offsets(b"\n"), offset) + 1
+
+    def point(self, offset):
+        """(row, column) of a byte offset, as tree-sitter counts them."""
+        newlines = self.offsets(b"\n")
+        row = bisect_left(newlines, offset)
+        return row, offset - (newlines[row - 1] + 1 if row else 0)
+
+    def edit(self, source, start, old_end, new_end):
+        """Follow the replacement of bytes [start, old_end) by [start, new_end) of the new `source`.
+
+        Only the edited window is searched again; offsets after it are shifted.
+        """
+        delta = new_end - old_end
+        for needle, offsets in self._offsets.items():
+            low = max(start - len(needle) + 1, 0)
+            limit = new_end + len(needle) - 1
+            found = []
+            pos = source.find(needle, low, limit)
+            while pos != -1:
+                found.append(pos)
+                pos = source.find(needle, pos + 1, limit)
+            offsets[bisect_left(offsets, low):] = found + [offset + delta for offset in
+                                                           offsets[bisect_left(offsets, old_end):]]
+        self.source = source
+
+    def count(self, node, needle):
+        """Occurrences of a single-byte needle inside the node."""
+        offsets = self.offsets(needle)
+        return bisect_left(offsets, node.end_byte) - bisect_left(offsets, node.start_byte)
+
+# === Metric Plugin API ===
+METRICS = {}
+
+def register_metric(cls):
+    """Class decorator making a metric available to compute_metrics by name."""
+    METRICS[cls.name] = cls
+    return cls
+
+class ComplexityMetric:
+    """Base class for metrics observing the shared traversal.
+
+    The reference calculators analyse the children of a control-flow node
+    twice (once nested, once at the enclosing level), so a node can be reached
+    by several logical walks. A frame summarises those walks as a
+    (count, nesting_sum) pair: visit() scores a node of numeric kind `kind`
+    reached under `frame` and returns the frame of its children, or None to
+    prune the subtree for this metric only. Node text is never decoded;
+    substring tests go through the shared SourceIndex.
+    """
+    name = None
+
+    def __init__(self, method_name=None):
+        self.method_name = method_name
+        self.method_needle = method_name.encode("utf-8") if method_name else None
+        self.complexity = 0
+
+    def visit(self, node, kind, index, frame):
+        return frame
+
+    def _is_recursive_call(self, node, index):
+        return self.method_needle is not None and index.contains(node, self.method_needle)
+
+# === Sonar Cognitive Complexity ===
+@register_metric
+class SonarMetric(ComplexityMetric):
+    name = "sonar"
+
+    def visit(self, node, kind, index, frame):
+        count, nesting = frame
+        if kind in CONTROL_FLOW_NODES:
+            # +1 plus nesting per walk; children are walked at nesting + 1 and again at nesting
+            self.complexity += count + nesting
+            return (2 * count, 2 * nesting + count)
+        points = self._points(node, kind, index)
+        if points:
+            self.complexity += count * points
+        return frame
+
+    def _points(self, node, kind, index):
+        if kind in BINARY_EXPRESSION:
+            return 1 if index.contains(node, b"&&") or index.contains(node, b"||") else 0
+        if kind in LABELED_STATEMENT:
+            return 1 if any(index.contains(node, k) for k in JUMP_KEYWORDS) else 0
+        if kind in METHOD_INVOCATION:
+            return 1 if self._is_recursive_call(node, index) else 0
+        return 0
+
+# === Test-Aware Cognitive Complexity (CCTR) ===
+@register_metric
+class TestAwareMetric(SonarMetric):
+    name = "testaware"
+
+    def _points(self, node, kind, index):
+        if kind in METHOD_INVOCATION:
+            points = 1 if self._is_recursive_call(node, index) else 0
+            if any(index.contains(node, x) for x in MOCK_CALLS):
+                points += 1  # mocking complexity
+            if index.contains(node, b"assert") or index.contains(node, b"fail("):
+                points += 1  # assertion logic
+            return points
+        if kind in ANNOTATION:
+            if index.contains(node, b"@Test"):
+                return 1
+            if index.contains(node, b"@ParameterizedTest"):
+                return 2
+            if index.contains(node, b"@BeforeEach") or index.contains(node, b"@AfterEach"):
+                return 1
+            return 0
+        return super()._points(node, kind, index)
+
+# === Legacy Dot-Counting Complexity ===
+@register_metric
+class LegacyMetric(ComplexityMetric):
+    """Early heuristic from get-cognitive_LLM.py: nesting, annotations,
+    assertion/throw statements and one point per '.' in a method call chain."""
+    name = "legacy"
+    NESTING_NODES = kind_ids("if_statement", "for_statement", "while_statement", "switch_statement")
+
+    def visit(self, node, kind, index, frame):
+        count, nesting = frame
+        if kind in self.NESTING_NODES:
+            self.complexity += count + nesting
+            return (count, nesting + count)
+        if kind in ANNOTATION:
+            if index.contains(node, b"@Test"):
+                self.complexity += count
+            elif index.contains(node, b"@ParameterizedTest"):
+                self.complexity += 2 * count
+            return None
+        if kind in EXPRESSION_STATEMENT:
+            if any(index.contains(node, k) for k in (b"assert", b"throw", b"catch")):
+                self.complexity += count
+            return None
+        if kind in METHOD_INVOCATION:
+            self.complexity += count * index.count(node, b".")
+            return None
+        return frame
+
+# === Traversal ===
+def compute_metrics(code, names=("sonar", "testaware"), method_name=None):
+    """Parse `code` once and return {metric name: complexity} for every name in `names`."""
+    source = code.encode("utf-8")
+    metrics = [METRICS[name](method_name) for name in names]
+    tree = parser.parse(source)
+    for _ in _walk(tree, SourceIndex(source), metrics):
+        pass
+    return {metric.name: metric.complexity for metric in metrics}
+
+def _walk_node(node, index, metrics, frames):
+    """Walk the subtree of `node`, the node included, reached under `frames`."""
+    cursor = node.walk()
+    stack = [frames]
+    while True:
+        node = cursor.node
+        kind = node.kind_id
+        child_frames = [metric.visit(node, kind, index, frame) if frame is not None else None
+                        for metric, frame in zip(metrics, stack[-1])]
+        if any(frame is not None for frame in child_frames) and cursor.goto_first_child():
+            stack.append(child_frames)
+            continue
+        while True:
+            if len(stack) == 1:
+                return
+            if cursor.goto_next_sibling():
+                break
+            cursor.goto_parent()
+            stack.pop()
+
+def _walk(tree, index, metrics, scopes=None):
+    """Pre-order walk with a TreeCursor and an explicit stack of frames.
+
+    stack[-1] holds the frames under which the cursor's current node is
+    reached; there is no Python recursion, so arbitrarily deep trees (long
+    call chains, generated nesting) cannot raise RecursionError.
+
+    With `scopes` the walk yields (node, frames, {metric: score}, cached) for
+    every outermost method declaration once its subtree is done; `scopes` may
+    be a function (node, frames) -> known scores, in which case a method with
+    known scores is credited them and not walked.
+    """
+    cursor = tree.walk()
+    if not cursor.goto_first_child():
+        return
+    stack = [[(1, 0)] * len(metrics)]
+    scope = None  # [depth, node, frames, complexities on entry, known scores]
+    while True:
+        node = cursor.node
+        kind = node.kind_id
+        if scopes is not None and scope is None and kind in METHOD_DECLARATIONS:
+            known = scopes(node, stack[-1]) if callable(scopes) else None
+            scope = [len(stack), node, stack[-1], [metric.complexity for metric in metrics], known]
+        if scope is not None and scope[4] is not None:
+            for metric in metrics:
+                metric.complexity += scope[4][metric.name]
+        else:
+            child_frames = [metric.visit(node, kind, index, frame) if frame is not None else None
+                            for metric, frame in zip(metrics, stack[-1])]
+            if any(frame is not None for frame in child_frames) and cursor.goto_first_child():
+                stack.append(child_frames)
+                continue
+        while True:
+            if scope is not None and len(stack) == scope[0]:
+                depth, method, frames, entry, known = scope
+                scope = None
+                yield method, frames, {metric.name: metric.complexity - before
+                                       for metric, before in zip(metrics, entry)}, known is not None
+            if cursor.goto_next_sibling():
+                break
+            if len(stack) == 1:
+                return
+            cursor.goto_parent()
+            stack.pop()
+
+# === Per-Method Scores ===
+MethodScore = namedtuple("MethodScore", "name kind start_line end_line is_test key scores cached")
+
+def method_key(source, node, frames, method_name=None):
+    """Content key of a method's scores: its bytes, the frames it is reached under, the recursion name."""
+    digest = hashlib.sha256(repr((frames, method_name)).encode("utf-8"))
+    digest.update(source[node.start_byte:node.end_byte])
+    return digest.hexdigest()
+
+def iter_method_metrics(code, names=("sonar", "testaware"), method_name=None, known=None):
+    """
+    Parse `code` once and yield a MethodScore for every outermost method or constructor
+    declaration as soon as its subtree has been walked, then one named None for the code
+    outside them, so the scores add up to compute_metrics(). Methods of local and anonymous
+    classes count towards the method enclosing them. `known(key)` may return the scores of
+    a method already scored under that key; the method is then not walked again.
+    """
+    source = code.encode("utf-8")
+    return (method for _, method in _method_scores(source, parser.parse(source), names, method_name, known))
+
+def _method_scores(source, tree, names, method_name, known, index=None):
+    """(node, MethodScore) pairs of iter_method_metrics(), the last one with node None."""
+    metrics = [METRICS[name](method_name) for name in names]
+    index = index or SourceIndex(source)
+    keys = {}
+
+    def lookup(node, frames):
+        key = keys[node.start_byte, node.end_byte] = method_key(source, node, frames, method_name)
+        return known(key)
+
+    totals = dict.fromkeys(names, 0)
+    for node, frames, scores, cached in _walk(tree, index, metrics, lookup if known else True):
+        key = keys.get((node.start_byte, node.end_byte)) or method_key(source, node, frames, method_name)
+        for name, score in scores.items():
+            totals[name] += score
+        yield node, _method_score(source, index, node, key, scores, cached)
+    yield None, MethodScore(None, None, None, None, False, None,
+                            {metric.name: metric.complexity - totals[metric.name] for metric in metrics}, False)
+
+def _method_score(source, index, node, key, scores, cached):
+    name_node = node.child_by_field_name("name")
+    header_end = name_node.start_byte if name_node is not None else node.end_byte
+    return MethodScore(
+        source[name_node.start_byte:name_node.end_byte].decode("utf-8") if name_node is not None else "",
+        node.type, index.line(node.start_byte), index.line(node.end_byte),
+        index.contains_range(node.start_byte, header_end, b"@Test"), key, scores, cached)
+
+# === Incremental Re-scoring ===
+def _common_length(limit, matches):
+    """Largest n <= limit with matches(n), for a predicate true up to some length and false after."""
+    low, high = 0, limit
+    while low < high:
+        middle = (low + high + 1) // 2
+        if matches(middle):
+            low = middle
+        else:
+            high = middle - 1
+    return low
+
+def _ancestors(tree, start, end):
+    """Nodes from the root down to the smallest one around bytes [start, end), and the position
+    of the outermost method or constructor declaration among them (None outside methods)."""
+    path = []
+    node = tree.root_node.descendant_for_byte_range(start, end)
+    while node is not None:
+        path.append(node)
+        node = node.parent
+    path.reverse()
+    return path, next((i for i, node in enumerate(path) if node.kind_id in METHOD_DECLARATIONS), None)
+
+class IncrementalScorer:
+    """
+    Scores of one source kept current across text edits, for editors and review bots.
+
+    An edit is applied to the previous tree with tree.edit() and the source is
+    reparsed against it, so tree-sitter only re-parses around the change. When
+    the edit and tree.changed_ranges() lie inside one method, only that method
+    is walked again (or credited the scores of its content key), the nodes
+    above it are re-scored for the code outside methods, and the source index
+    and later methods are shifted; nothing else is visited. Any other edit,
+    or one leaving syntax errors (which tree-sitter may recover from
+    differently than a fresh parse), walks the file again with every
+    unchanged method credited by its key.
+    `rescored` is the number of methods the last edit walked and `full_walk`
+    whether it walked the file.
+    """
+
+    def __init__(self, code, names=("sonar", "testaware"), method_name=None):
+        self.names = tuple(names)
+        self.method_name = method_name
+        self.source = code.encode("utf-8")
+        self.tree = parser.parse(self.source)
+        self.index = SourceIndex(self.source)
+        self._known = {}
+        self._rescore()
+
+    def _rescore(self):
+        scored = list(_method_scores(self.source, self.tree, self.names, self.method_name,
+                                     self._known.get, self.index))
+        self.methods = [method for _, method in scored]
+        self._spans = [(node.start_byte, node.end_byte) for node, _ in scored if node is not None]
+        self._known = {method.key: method.scores for method in self.methods if method.key is not None}
+        self.scores = {name: sum(method.scores[name] for method in self.methods) for name in self.names}
+        self.rescored = sum(1 for method in self.methods if method.key is not None and not method.cached)
+        self.full_walk = True
+
+    def _visit_path(self, ancestors):
+        """Frames a method below `ancestors` is reached under, and the ancestors' scores."""
+        metrics = [METRICS[name](self.method_name) for name in self.names]
+        frames = [(1, 0)] * len(metrics)
+        for node in ancestors:
+            kind = node.kind_id
+            frames = [metric.visit(node, kind, self.index, frame) if frame is not None else None
+                      for metric, frame in zip(metrics, frames)]
+        return frames, {metric.name: metric.complexity for metric in metrics}
+
+    @property
+    def code(self):
+        return self.source.decode("utf-8")
+
+    def edit(self, start_byte, old_end_byte, new_text):
+        """Replace source bytes [start_byte, old_end_byte) by `new_text`; returns the new file scores."""
+        inserted = new_text.encode("utf-8")
+        new_end_byte = start_byte + len(inserted)
+        source = self.source[:start_byte] + inserted + self.source[old_end_byte:]
+        # The outermost method strictly around the edit, and what the nodes above it scored
+        position = bisect_left(self._spans, (start_byte,)) - 1
+        before = None
+        if position >= 0 and old_end_byte < self._spans[position][1]:
+            path, depth = _ancestors(self.tree, start_byte, old_end_byte)
+            if depth is not None and (path[depth].start_byte, path[depth].end_byte) == self._spans[position]:
+                before = self._visit_path(path[1:depth])[1]
+        lines = inserted.count(b"\n") - self.source.count(b"\n", start_byte, old_end_byte)
+        start_point, old_end_point = self.index.point(start_byte), self.index.point(old_end_byte)
+        self.index.edit(source, start_byte, old_end_byte, new_end_byte)
+        old_tree = self.tree
+        old_tree.edit(
+            start_byte=start_byte, old_end_byte=old_end_byte, new_end_byte=new_end_byte,
+            start_point=start_point, old_end_point=old_end_point,
+            new_end_point=self.index.point(new_end_byte),
+        )
+        self.source = source
+        self.tree = parser.parse(source, old_tree)
+        if self.tree.root_node.has_error:
+            # Error recovery may differ from a fresh parse; score what compute_metrics() would see
+            self.tree = parser.parse(source)
+            before = None
+        if before is None or not self._rescore_method(position, old_tree, start_byte, new_end_byte,
+                                                      new_end_byte - old_end_byte, lines, before):
+            self._rescore()
+        return self.scores
+
+    def _rescore_method(self, position, old_tree, start_byte, new_end_byte, delta, lines, before):
+        """Re-score only the method at `position` after an edit inside it; False if the edit reached further."""
+        start, end = self._spans[position][0], self._spans[position][1] + delta
+        path, depth = _ancestors(self.tree, start_byte, new_end_byte)
+        if depth is None or (path[depth].start_byte, path[depth].end_byte) != (start, end):
+            return False
+        if any(changed.start_byte < start or changed.end_byte > end
+               for changed in old_tree.changed_ranges(self.tree)):
+            return False
+        frames, after = self._visit_path(path[1:depth])
+        if all(frame is None for frame in frames):
+            return False
+        node = path[depth]
+        key = method_key(self.source, node, frames, self.method_name)
+        scores = self._known.get(key)
+        if scores is None:
+            metrics = [METRICS[name](self.method_name) for name in self.names]
+            _walk_node(node, self.index, metrics, frames)
+            scores = {metric.name: metric.complexity for metric in metrics}
+        previous = self.methods[position]
+        self.methods[position] = _method_score(self.source, self.index, node, key, scores,
+                                               key in self._known)
+        self._spans[position] = (start, end)
+        if delta:
+            self._spans[position + 1:] = [(later_start + delta, later_end + delta)
+                                          for later_start, later_end in self._spans[position + 1:]]
+        if lines:
+            self.methods[position + 1:-1] = [
+                method._replace(start_line=method.start_line + lines, end_line=method.end_line + lines)
+                for method in self.methods[position + 1:-1]]
+        outside = self.methods[-1]
+        self.methods[-1] = outside._replace(scores={name: outside.scores[name] + after[name] - before[name]
+                                                    for name in self.names})
+        for name in self.names:
+            self.scores[name] += scores[name] - previous.scores[name] + after[name] - before[name]
+        if previous.key != key and all(method.key != previous.key for method in self.methods):
+            del self._known[previous.key]
+        self._known[key] = scores
+        self.rescored = 0 if self.methods[position].cached else 1
+        self.full_walk = False
+        return True
+
+    def update(self, code):
+        """Move to a new full text (e.g. an editor buffer) as a single edit of the span that differs."""
+        new, old = code.encode("utf-8"), self.source
+        limit = min(len(new), len(old))
+        start = _common_length(limit, lambda n: new[:n] == old[:n])
+        end = _common_length(limit - start, lambda n: new[len(new) - n:] == old[len(old) - n:])
+        # Keep the edit on a character boundary
+        while start > 0 and (new[start] if start < len(new) else 0) & 0xC0 == 0x80:
+            start -= 1
+        while end > 0 and new[len(new) - end] & 0xC0 == 0x80:
+            end -= 1
+        return self.edit(start, len(self.source) - end, new[start:len(new) - end].decode("utf-8"))
+
+def main():
+    if len(sys.argv) < 2:
+        print(__doc__.strip().splitlines()[-1])
+        sys.exit(1)
+    names = sys.argv[2:] or ["sonar", "testaware"]
+    with open(sys.argv[1], "r", encoding="utf-8") as f:
+        code = f.read()
+    print("\t".join(["method", "lines", "test", *names]))
+    for method in iter_method_metrics(code, names):
+        lines = f"{method.start_line}-{method.end_line}" if method.start_line else ""
+        print("\t".join([method.name if method.name is not None else "<outside methods>", lines,
+                         "yes" if method.is_test else "", *(str(method.scores[name]) for name in names)]), flush=True)
+
+if __name__ == "__main__":
+    main()
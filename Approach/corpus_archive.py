@@ -0,0 +1,244 @@
+"""Packed, memory-mapped archive of a generated test suite tree.
+
+The Compilable-OK trees hold thousands of small .java / .class files in deep
+<dataset>/<model>/<project>/<class>/[<bug>/]Iteration_N/<package path>/
+directories, and every analysis used to start with an os.walk over them.
+pack() walks the tree once and writes a single file:
+
+  header   magic, format version
+  data     each file's bytes, zlib-compressed unless that does not pay off,
+           in walk order so a full pass reads the archive front to back
+  names    the relative paths, UTF-8
+  records  one fixed-size record per file: data offset, stored and raw
+           lengths, name, flags and the SHA-256 of the raw content
+  order    record numbers sorted by path, for binary search
+  meta     JSON (packed root, file count)
+  footer   offsets of the sections above
+
+CorpusArchive maps the file and reads records straight from the mapping:
+opening it does not scan anything, find() is a binary search, view() returns
+a memoryview of the stored bytes without copying and the digests match
+result_cache.file_digest(), so cached results are reused as-is.
+
+Usage:
+  python3 corpus_archive.py pack ROOT ARCHIVE
+  python3 corpus_archive.py list ARCHIVE [PREFIX]
+  python3 corpus_archive.py cat ARCHIVE PATH
+"""
+import os
+import sys
+import json
+import mmap
+import zlib
+import struct
+import hashlib
+from collections import namedtuple
+
+MAGIC = b"CCTRPAK\0"
+FORMAT_VERSION = 1
+HEADER = struct.Struct("<8sII")
+RECORD = struct.Struct("<QIIIHB32sx")  # offset, stored, raw, name offset, name length, flags, sha256
+FOOTER = struct.Struct("<QQQQII8s")    # names, records, order, meta offsets, meta length, count, magic
+COMPRESSED = 1
+SKIPPED_FILES = {".DS_Store"}
+
+Entry = namedtuple("Entry", "index path dataset model project clazz bug_id iteration kind")
+
+def parse_key(path):
+    """(dataset, model, project, class, bug-id, iteration) of a path under the packed root; Nones off layout."""
+    parts = path.split("/")
+    if parts and parts[0].endswith("-Compilable-OK"):
+        dataset = parts[0][:-len("-Compilable-OK")]
+        if dataset == "Defects4J" and len(parts) >= 7:
+            return dataset, parts[1], parts[2], parts[3], parts[4], parts[5]
+        if dataset != "Defects4J" and len(parts) >= 6:
+            return dataset, parts[1], parts[2], parts[3], None, parts[4]
+    return (None,) * 6
+
+def walk_files(root):
+    """Relative '/'-separated paths under root, in os.walk order with sorted directories and files."""
+    for current, dirs, files in os.walk(root):
+        dirs.sort()
+        for name in sorted(files):
+            if name not in SKIPPED_FILES:
+                yield os.path.relpath(os.path.join(current, name), root).replace(os.sep, "/")
+
+# === Writing ===
+def pack(root, archive_path, level=6):
+    """Pack every file under root into archive_path (replaced atomically); returns the file count."""
+    records, names = [], bytearray()
+    tmp_path = f"{archive_path}.tmp-{os.getpid()}"
+    with open(tmp_path, "wb") as out:
+        out.write(HEADER.pack(MAGIC, FORMAT_VERSION, 0))
+        for path in walk_files(root):
+            with open(os.path.join(root, path), "rb") as f:
+                raw = f.read()
+            packed = zlib.compress(raw, level)
+            flags = COMPRESSED if len(packed) < len(raw) else 0
+            stored = packed if flags else raw
+            name = path.encode("utf-8")
+            records.append((out.tell(), len(stored), len(raw), len(names), len(name), flags,
+                            hashlib.sha256(raw).digest()))
+            names += name
+            out.write(stored)
+
+        names_offset = out.tell()
+        out.write(names)
+        records_offset = out.tell()
+        for record in records:
+            out.write(RECORD.pack(*record))
+        order_offset = out.tell()
+        order = sorted(range(len(records)), key=lambda i: names[records[i][3]:records[i][3] + records[i][4]])
+        out.write(struct.pack(f"<{len(order)}I", *order))
+        meta_offset = out.tell()
+        meta = json.dumps({"root": os.path.abspath(root), "files": len(records)}).encode("utf-8")
+        out.write(meta)
+        out.write(FOOTER.pack(names_offset, records_offset, order_offset, meta_offset, len(meta), len(records), MAGIC))
+        out.flush()
+        os.fsync(out.fileno())
+    os.replace(tmp_path, archive_path)
+    return len(records)
+
+# === Reading ===
+class CorpusArchive:
+    def __init__(self, archive_path):
+        self.path = archive_path
+        with open(archive_path, "rb") as f:
+            self.map = mmap.mmap(f.fileno(), 0, access=mmap.ACCESS_READ)
+        self.buffer = memoryview(self.map)
+        magic, version, _ = HEADER.unpack_from(self.buffer, 0)
+        footer = FOOTER.unpack_from(self.buffer, len(self.buffer) - FOOTER.size)
+        if magic != MAGIC or footer[-1] != MAGIC:
+            self.close()
+            raise ValueError(f"{archive_path}: not a corpus archive")
+        if version != FORMAT_VERSION:
+            self.close()
+            raise ValueError(f"{archive_path}: archive format {version}, expected {FORMAT_VERSION}")
+        self.names_offset, self.records_offset, self.order_offset, meta_offset, meta_length, self.count, _ = footer
+        self.meta = json.loads(self.map[meta_offset:meta_offset + meta_length])
+
+    def __enter__(self):
+        return self
+
+    def __exit__(self, *exc):
+        self.close()
+
+    def close(self):
+        if self.map is not None:
+            try:
+                self.buffer.release()
+                self.map.close()
+            except BufferError:
+                pass  # views handed out by view() are still alive; the mapping goes with them
+            self.map = None
+
+    def __len__(self):
+        return self.count
+
+    def _record(self, index):
+        return RECORD.unpack_from(self.buffer, self.records_offset + index * RECORD.size)
+
+    def _name(self, index):
+        _, _, _, name_offset, name_length, _, _ = self._record(index)
+        start = self.names_offset + name_offset
+        return self.map[start:start + name_length].decode("utf-8")
+
+    def entry(self, index):
+        path = self._name(index)
+        return Entry(index, path, *parse_key(path), os.path.splitext(path)[1].lstrip("."))
+
+    def __iter__(self):
+        """Entries in storage order, i.e. sequential reads of the data section."""
+        for index in range(self.count):
+            yield self.entry(index)
+
+    def _sorted(self, position):
+        return struct.unpack_from("<I", self.buffer, self.order_offset + 4 * position)[0]
+
+    def _lower_bound(self, path):
+        low, high = 0, self.count
+        while low < high:
+            middle = (low + high) // 2
+            if self._name(self._sorted(middle)) < path:
+                low = middle + 1
+            else:
+                high = middle
+        return low
+
+    def find(self, path):
+        """The entry stored under a relative path, or None."""
+        path = path.replace(os.sep, "/")
+        position = self._lower_bound(path)
+        if position < self.count:
+            index = self._sorted(position)
+            if self._name(index) == path:
+                return self.entry(index)
+        return None
+
+    def select(self, prefix="", **key):
+        """Entries under a path prefix, in storage order, filtered on Entry fields (dataset=..., kind=...)."""
+        prefix = prefix.replace(os.sep, "/")
+        indices = range(self.count)
+        if prefix:
+            position, matched = self._lower_bound(prefix), []
+            while position < self.count:
+                index = self._sorted(position)
+                if not self._name(index).startswith(prefix):
+                    break
+                matched.append(index)
+                position += 1
+            indices = sorted(matched)
+        for index in indices:
+            entry = self.entry(index)
+            if all(getattr(entry, field) == value for field, value in key.items()):
+                yield entry
+
+    def view(self, entry):
+        """The stored (possibly compressed) bytes of an entry, as a memoryview into the mapping."""
+        offset, stored, _, _, _, _, _ = self._record(entry.index)
+        return self.buffer[offset:offset + stored]
+
+    def read(self, entry):
+        _, _, raw, _, _, flags, _ = self._record(entry.index)
+        data = self.view(entry)
+        return zlib.decompress(data, bufsize=max(raw, 1)) if flags & COMPRESSED else bytes(data)
+
+    def text(self, entry, errors="strict"):
+        """
+        The entry decoded as open(path, encoding="utf-8", errors=errors).read() decodes the
+        file: invalid UTF-8 raises by default, and line endings become "\n".
+        """
+        text = self.read(entry).decode("utf-8", errors=errors)
+        return text.replace("\r\n", "\n").replace("\r", "\n")
+
+    def digest(self, entry):
+        """SHA-256 of the original file, as result_cache.file_digest() computes it."""
+        return self._record(entry.index)[6].hex()
+
+    def sources(self, prefix="", errors="strict"):
+        """(entry, text) of the test sources (.java, scaffolding excluded) under a prefix."""
+        for entry in self.select(prefix, kind="java"):
+            if "scaffolding" not in os.path.basename(entry.path):
+                yield entry, self.text(entry, errors)
+
+def main():
+    command, args = (sys.argv[1], sys.argv[2:]) if len(sys.argv) > 1 else (None, [])
+    if command == "pack" and len(args) == 2:
+        count = pack(*args)
+        print(f"Packed {count} files into {args[1]} ({os.path.getsize(args[1]) / 1e6:.1f} MB)")
+    elif command == "list" and len(args) in (1, 2):
+        with CorpusArchive(args[0]) as archive:
+            for entry in archive.select(*args[1:]):
+                print(entry.path)
+    elif command == "cat" and len(args) == 2:
+        with CorpusArchive(args[0]) as archive:
+            entry = archive.find(args[1])
+            if entry is None:
+                sys.exit(f"{args[1]}: not in {args[0]}")
+            sys.stdout.buffer.write(archive.read(entry))
+    else:
+        print("\n".join(__doc__.strip().splitlines()[-3:]))
+        sys.exit(1)
+
+if __name__ == "__main__":
+    main()
@@ -0,0 +1,215 @@
+"""Exact and near-duplicate iterations in the compilable LLM test suites.
+
+Each class is generated up to 15 times at a low temperature and many of the
+iterations are identical or nearly so. Every test source is tokenized with
+comments and layout dropped:
+
+  - the SHA-256 of the normalized token stream groups iterations that only
+    differ in formatting or comments (exact duplicates);
+  - a one-permutation MinHash signature of its token shingles, bucketed by
+    LSH bands, finds candidate near-duplicates; candidates whose estimated
+    Jaccard similarity reaches --threshold are merged into clusters.
+
+Byte-identical files are already scored once per run by the metric stages
+(ResultCache.duplicates); the layout-aware metrics (readability, PMD line
+numbers) keep scoring files that only differ in formatting.
+
+Outputs (under --output-dir):
+  near_duplicate_clusters.csv  one row per file in a cluster of two or more
+  generation_diversity.csv     per generated class: iterations, distinct
+                               files, distinct normalized sources, clusters
+                               and mean pairwise similarity
+"""
+import os
+import re
+import csv
+import sys
+import hashlib
+import argparse
+from itertools import combinations
+from corpus_archive import CorpusArchive, parse_key, walk_files
+
+SCRIPT_DIR = os.path.dirname(os.path.abspath(__file__))
+DEFAULT_ROOT = os.path.join(SCRIPT_DIR, "..", "LLM-Generated-Test-Suite", "Generated-Test-Suite-Compilable")
+OUTPUT_DIR = os.path.join(SCRIPT_DIR, "outputs")
+
+SHINGLE_SIZE = 5    # tokens per shingle
+SIGNATURE_SIZE = 128
+BANDS = 16          # 16 bands of 8 rows: pairs above ~0.7 similarity share a bucket
+ROWS = SIGNATURE_SIZE // BANDS
+EMPTY = (1 << 57) - 1
+
+TOKEN = re.compile(r"""
+    (?P<comment>//[^\n]*|/\*.*?\*/)
+  | (?P<text>"(?:\\.|[^"\\])*"|'(?:\\.|[^'\\])*')
+  | (?P<word>[A-Za-z_$][\w$]*|\d[\w.]*)
+  | (?P<space>\s+)
+  | (?P<symbol>.)
+""", re.VERBOSE | re.DOTALL)
+
+# === Normalization and Signatures ===
+def tokenize(code):
+    """Java tokens of a source, comments and whitespace dropped."""
+    return [m.group() for m in TOKEN.finditer(code) if m.lastgroup not in ("comment", "space")]
+
+def normalized_digest(tokens):
+    return hashlib.sha256("\n".join(tokens).encode("utf-8")).hexdigest()
+
+def shingle_hashes(tokens):
+    """64-bit hashes of the token k-grams (the whole stream when shorter than k)."""
+    count = max(1, len(tokens) - SHINGLE_SIZE + 1)
+    return {int.from_bytes(hashlib.blake2b("\0".join(tokens[i:i + SHINGLE_SIZE]).encode("utf-8"),
+                                           digest_size=8).digest(), "little") for i in range(count)}
+
+def minhash(hashes):
+    """
+    One-permutation MinHash: each shingle hash lands in one of SIGNATURE_SIZE bins
+    (its low bits) and each bin keeps its smallest value; empty bins borrow from
+    the next non-empty bin so sparse documents still compare position by position.
+    """
+    bins = [EMPTY] * SIGNATURE_SIZE
+    for value in hashes:
+        slot, rest = value % SIGNATURE_SIZE, value // SIGNATURE_SIZE
+        if rest < bins[slot]:
+            bins[slot] = rest
+    filled = [i for i, value in enumerate(bins) if value != EMPTY]
+    if not filled:
+        return tuple(bins)
+    signature, source = list(bins), filled[0]
+    for i in reversed(range(SIGNATURE_SIZE)):
+        if bins[i] != EMPTY:
+            source = i
+        else:
+            signature[i] = bins[source] + (source - i) % SIGNATURE_SIZE * EMPTY
+    return tuple(signature)
+
+def similarity(first, second):
+    """Estimated Jaccard similarity of two signatures."""
+    return sum(a == b for a, b in zip(first, second)) / SIGNATURE_SIZE
+
+# === Clustering ===
+class DisjointSets:
+    def __init__(self, count):
+        self.parent = list(range(count))
+
+    def find(self, item):
+        while self.parent[item] != item:
+            self.parent[item] = self.parent[self.parent[item]]
+            item = self.parent[item]
+        return item
+
+    def union(self, first, second):
+        first, second = self.find(first), self.find(second)
+        if first != second:
+            self.parent[max(first, second)] = min(first, second)
+
+def cluster(signatures, threshold):
+    """Clusters (lists of indices, first one the representative) of signatures similar above threshold."""
+    sets = DisjointSets(len(signatures))
+    dissimilar = set()  # candidate pairs already found below threshold in an earlier band
+    for band in range(BANDS):
+        buckets = {}
+        for index, signature in enumerate(signatures):
+            buckets.setdefault(signature[band * ROWS:(band + 1) * ROWS], []).append(index)
+        for members in buckets.values():
+            # Every candidate pair: similarity is not transitive, so comparing against one member misses pairs
+            for position, first in enumerate(members):
+                for second in members[position + 1:]:
+                    if sets.find(first) == sets.find(second) or (first, second) in dissimilar:
+                        continue
+                    if similarity(signatures[first], signatures[second]) >= threshold:
+                        sets.union(first, second)
+                    else:
+                        dissimilar.add((first, second))
+    clusters = {}
+    for index in range(len(signatures)):
+        clusters.setdefault(sets.find(index), []).append(index)
+    return list(clusters.values())
+
+# === Corpus ===
+def load_corpus(root=None, archive_path=None):
+    """(relative path, raw bytes) of every test source, from the tree or from a corpus archive."""
+    if archive_path:
+        with CorpusArchive(archive_path) as archive:
+            return [(entry.path, archive.read(entry)) for entry in archive.select(kind="java")
+                    if "scaffolding" not in os.path.basename(entry.path)]
+    corpus = []
+    for path in walk_files(root):
+        if path.endswith(".java") and "scaffolding" not in os.path.basename(path):
+            with open(os.path.join(root, path), "rb") as f:
+                corpus.append((path, f.read()))
+    return corpus
+
+def analyze(corpus, threshold):
+    """Per-file records and the near-duplicate clusters over them."""
+    records = []
+    for path, raw in corpus:
+        tokens = tokenize(raw.decode("utf-8", errors="ignore"))
+        records.append({
+            "path": path,
+            "key": parse_key(path),
+            "digest": hashlib.sha256(raw).hexdigest(),
+            "normalized": normalized_digest(tokens),
+            "signature": minhash(shingle_hashes(tokens)),
+        })
+    return records, cluster([record["signature"] for record in records], threshold)
+
+def save_clusters(records, clusters, output_path):
+    with open(output_path, "w", newline="", encoding="utf-8") as f:
+        writer = csv.writer(f)
+        writer.writerow(["Cluster", "Size", "Dataset", "Model", "Project", "Class", "Bug-ID", "Iteration",
+                         "File", "Normalized Hash", "Similarity", "Representative"])
+        numbered = sorted((members for members in clusters if len(members) > 1), key=lambda m: m[0])
+        for number, members in enumerate(numbered, 1):
+            representative = records[members[0]]
+            for index in members:
+                record = records[index]
+                dataset, model, project, clazz, bug_id, iteration = record["key"]
+                writer.writerow([number, len(members), dataset, model, project, clazz, bug_id or "", iteration,
+                                 record["path"], record["normalized"][:16],
+                                 f"{similarity(representative['signature'], record['signature']):.3f}",
+                                 index == members[0]])
+        return len(numbered)
+
+def save_diversity(records, clusters, output_path):
+    cluster_of = {index: members[0] for members in clusters for index in members}
+    groups = {}
+    for index, record in enumerate(records):
+        groups.setdefault(record["key"][:5], []).append(index)
+    with open(output_path, "w", newline="", encoding="utf-8") as f:
+        writer = csv.writer(f)
+        writer.writerow(["Dataset", "Model", "Project", "Class", "Bug-ID", "Iterations", "Distinct Files",
+                         "Distinct Normalized", "Clusters", "Mean Pairwise Similarity"])
+        for (dataset, model, project, clazz, bug_id), members in groups.items():
+            pairs = [similarity(records[a]["signature"], records[b]["signature"]) for a, b in combinations(members, 2)]
+            writer.writerow([dataset, model, project, clazz, bug_id or "", len(members),
+                             len({records[i]["digest"] for i in members}),
+                             len({records[i]["normalized"] for i in members}),
+                             len({cluster_of[i] for i in members}),
+                             f"{sum(pairs) / len(pairs):.3f}" if pairs else ""])
+
+def main():
+    arg_parser = argparse.ArgumentParser(description="Exact and near-duplicate iterations of the compilable LLM tests")
+    arg_parser.add_argument("--root", default=DEFAULT_ROOT,
+                            help="directory holding the *-Compilable-OK trees (default: %(default)s)")
+    arg_parser.add_argument("--archive", help="read the corpus from a corpus archive instead of --root")
+    arg_parser.add_argument("--threshold", type=float, default=0.8,
+                            help="estimated Jaccard similarity from which two files are near-duplicates")
+    arg_parser.add_argument("--output-dir", default=OUTPUT_DIR)
+    args = arg_parser.parse_args()
+
+    corpus = load_corpus(args.root, args.archive)
+    if not corpus:
+        sys.exit(f"No test sources under {args.archive or args.root}")
+    records, clusters = analyze(corpus, args.threshold)
+
+    os.makedirs(args.output_dir, exist_ok=True)
+    clustered = save_clusters(records, clusters, os.path.join(args.output_dir, "near_duplicate_clusters.csv"))
+    save_diversity(records, clusters, os.path.join(args.output_dir, "generation_diversity.csv"))
+    print(f"{len(records)} files: {len({r['digest'] for r in records})} distinct, "
+          f"{len({r['normalized'] for r in records})} distinct once normalized, "
+          f"{len(clusters)} near-duplicate clusters ({clustered} with two files or more)")
+    print(f"Results saved to {args.output_dir}")
+
+if __name__ == "__main__":
+    main()
@@ -0,0 +1,207 @@
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.net.StandardProtocolFamily;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.Permission;
+import java.util.Base64;
+import java.util.jar.JarFile;
+
+/**
+ * Long-lived readability scoring service around {@code rsm.jar}.
+ *
+ * <p>The JVM, the rsm classes and the JIT-compiled model are loaded once;
+ * each request invokes the jar's entry point in-process and parses the
+ * {@code file<TAB>score} line it prints. It must be started from the folder
+ * holding {@code readability.classifier}, like {@code java -jar rsm.jar}.
+ *
+ * <p>Protocol: one UTF-8 line per request and per response, tab separated.
+ * Responses come back in request order, so clients may pipeline.
+ * <pre>
+ *   request:  id FILE    absolute-path
+ *             id SNIPPET base64-encoded Java source
+ *   response: id OK      score
+ *             id ERR     message
+ * </pre>
+ *
+ * <p>Usage (Java 16+): {@code java -Djava.security.manager=allow ReadabilityServer.java path/to/rsm.jar [--socket path]}.
+ * Without {@code --socket} requests are read from stdin and answered on stdout.
+ */
+public final class ReadabilityServer {
+
+    private final Method entryPoint;
+    private final Path snippetDir;
+    private long snippetCount;
+
+    ReadabilityServer(Path rsmJar) throws Exception {
+        String mainClass;
+        try (JarFile jar = new JarFile(rsmJar.toFile())) {
+            mainClass = jar.getManifest().getMainAttributes().getValue("Main-Class");
+        }
+        if (mainClass == null) {
+            throw new IllegalArgumentException("No Main-Class in " + rsmJar);
+        }
+        ClassLoader loader = new URLClassLoader(new URL[] {rsmJar.toUri().toURL()},
+                ReadabilityServer.class.getClassLoader());
+        this.entryPoint = Class.forName(mainClass, true, loader).getMethod("main", String[].class);
+        this.snippetDir = Files.createTempDirectory("rsm-snippets");
+        this.snippetDir.toFile().deleteOnExit();
+    }
+
+    public static void main(String[] args) throws Exception {
+        Path rsmJar = Paths.get(args.length > 0 ? args[0] : "rsm.jar");
+        // Responses always go to the real stdout; System.out is redirected while rsm runs
+        PrintWriter stdout = new PrintWriter(new OutputStreamWriter(
+                new FileOutputStream(FileDescriptor.out), StandardCharsets.UTF_8));
+        forbidExit();
+        ReadabilityServer server = new ReadabilityServer(rsmJar);
+        if (args.length > 2 && "--socket".equals(args[1])) {
+            server.serveSocket(Paths.get(args[2]));
+        } else {
+            server.serve(new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8)), stdout);
+        }
+    }
+
+    /** Answers requests from one connection until it is closed. */
+    void serve(BufferedReader in, PrintWriter out) throws IOException {
+        String line;
+        while ((line = in.readLine()) != null) {
+            if (line.isEmpty()) {
+                continue;
+            }
+            out.println(handle(line));
+            // Flush only when no further pipelined request is already waiting
+            if (!in.ready()) {
+                out.flush();
+            }
+        }
+        out.flush();
+    }
+
+    void serveSocket(Path socketPath) throws IOException {
+        Files.deleteIfExists(socketPath);
+        try (ServerSocketChannel channel = ServerSocketChannel.open(StandardProtocolFamily.UNIX)) {
+            channel.bind(UnixDomainSocketAddress.of(socketPath));
+            while (true) {
+                SocketChannel client = channel.accept();
+                Thread worker = new Thread(() -> {
+                    try (client) {
+                        serve(new BufferedReader(new InputStreamReader(Channels.newInputStream(client), StandardCharsets.UTF_8)),
+                                new PrintWriter(new OutputStreamWriter(Channels.newOutputStream(client), StandardCharsets.UTF_8)));
+                    } catch (IOException e) {
+                        System.err.println("[ReadabilityServer] connection failed: " + e.getMessage());
+                    }
+                });
+                worker.setDaemon(true);
+                worker.start();
+            }
+        }
+    }
+
+    /** rsm writes to the global System.out, so requests are scored one at a time. */
+    synchronized String handle(String request) {
+        String[] fields = request.split("\t", 3);
+        if (fields.length != 3) {
+            return "-\tERR\tmalformed request";
+        }
+        String id = fields[0];
+        Path snippet = null;
+        try {
+            Path file;
+            if ("FILE".equals(fields[1])) {
+                file = Paths.get(fields[2]);
+            } else if ("SNIPPET".equals(fields[1])) {
+                snippet = snippetDir.resolve("Snippet" + (snippetCount++) + ".java");
+                Files.write(snippet, Base64.getDecoder().decode(fields[2]));
+                file = snippet;
+            } else {
+                return id + "\tERR\tunknown request type " + fields[1];
+            }
+            Double score = score(file);
+            return score == null ? id + "\tERR\tno score for " + file : id + "\tOK\t" + score;
+        } catch (Throwable t) {
+            Throwable cause = t instanceof InvocationTargetException ? t.getCause() : t;
+            return id + "\tERR\t" + String.valueOf(cause).replaceAll("\\s+", " ");
+        } finally {
+            if (snippet != null) {
+                snippet.toFile().delete();
+            }
+        }
+    }
+
+    private Double score(Path file) throws Exception {
+        ByteArrayOutputStream captured = new ByteArrayOutputStream();
+        PrintStream previous = System.out;
+        System.setOut(new PrintStream(captured, true, "UTF-8"));
+        try {
+            entryPoint.invoke(null, (Object) new String[] {file.toString()});
+        } catch (InvocationTargetException e) {
+            // A System.exit() after printing the scores still leaves a usable output
+            if (!(e.getCause() instanceof ExitAttempt)) {
+                throw e;
+            }
+        } finally {
+            System.setOut(previous);
+        }
+        // Same filtering as the one-shot Python parsers of rsm's output
+        for (String line : captured.toString("UTF-8").split("\\R")) {
+            if (!line.contains("\t") || line.startsWith("file") || line.startsWith("[INFO]")) {
+                continue;
+            }
+            String[] parts = line.trim().split("\t");
+            if (parts.length == 2) {
+                try {
+                    return Double.valueOf(parts[1].trim());
+                } catch (NumberFormatException e) {
+                    // not a score line
+                }
+            }
+        }
+        return null;
+    }
+
+    /** Keeps a System.exit() inside rsm from taking the server down (JDK 18+ needs -Djava.security.manager=allow). */
+    @SuppressWarnings("removal")
+    private static void forbidExit() {
+        try {
+            System.setSecurityManager(new SecurityManager() {
+                @Override
+                public void checkExit(int status) {
+                    throw new ExitAttempt(status);
+                }
+
+                @Override
+                public void checkPermission(Permission perm) {
+                    // everything else is allowed
+                }
+            });
+        } catch (UnsupportedOperationException | SecurityException e) {
+            System.err.println("[ReadabilityServer] cannot intercept System.exit: " + e.getMessage());
+        }
+    }
+
+    private static final class ExitAttempt extends SecurityException {
+        private static final long serialVersionUID = 1L;
+
+        ExitAttempt(int status) {
+            super("rsm.jar called System.exit(" + status + ")");
+        }
+    }
+}
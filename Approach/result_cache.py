@@ -0,0 +1,153 @@
+"""Content-addressed cache of per-file metric results, shared by every metric stage.
+
+A result is keyed by (SHA-256 of the file content, metric name, version), where
+the version folds in everything else the result depends on: the metric
+implementation, the tool build, the ruleset. Editing a test, upgrading PMD or
+touching a ruleset therefore only misses the affected entries; nothing has to
+be invalidated by hand. Values are stored as JSON in one SQLite database.
+"""
+import os
+import glob
+import json
+import sqlite3
+import hashlib
+import threading
+
+DEFAULT_PATH = os.environ.get(
+    "CCTR_RESULT_CACHE", os.path.join(os.path.expanduser("~"), ".cache", "cctr", "results.sqlite"))
+BATCH = 500  # keys per SELECT, below SQLite's bound parameter limit
+
+def file_digest(path):
+    digest = hashlib.sha256()
+    with open(path, "rb") as f:
+        for block in iter(lambda: f.read(1 << 20), b""):
+            digest.update(block)
+    return digest.hexdigest()
+
+def version_key(*parts):
+    """Version string for a metric: plain strings are used as-is, existing files by content hash."""
+    digest = hashlib.sha256()
+    for part in parts:
+        part = str(part)
+        digest.update((file_digest(part) if os.path.isfile(part) else part).encode("utf-8"))
+        digest.update(b"\0")
+    return digest.hexdigest()[:16]
+
+def install_version(home):
+    """Version string of a Java tool installed under `home` (e.g. a PMD distribution): the
+    jars of its lib directory, by content, wherever the path resolves to."""
+    home = os.path.realpath(home)
+    jars = sorted(glob.glob(os.path.join(home, "lib", "*.jar")))
+    return version_key(*jars) if jars else version_key(home)
+
+class ResultCache:
+    def __init__(self, path=DEFAULT_PATH):
+        """Open (or create) the cache at `path`; a None path gives a disabled cache that never hits."""
+        self.db = None
+        self.digests = {}
+        self.lock = threading.Lock()
+        if path is None:
+            return
+        os.makedirs(os.path.dirname(os.path.abspath(path)), exist_ok=True)
+        self.db = sqlite3.connect(path, timeout=60, check_same_thread=False)
+        self.db.execute("PRAGMA journal_mode=WAL")
+        self.db.execute("PRAGMA synchronous=NORMAL")
+        self.db.execute(
+            "CREATE TABLE IF NOT EXISTS results ("
+            " digest TEXT NOT NULL, metric TEXT NOT NULL, version TEXT NOT NULL, value TEXT NOT NULL,"
+            " PRIMARY KEY (digest, metric, version)) WITHOUT ROWID"
+        )
+        self.db.commit()
+
+    def __enter__(self):
+        return self
+
+    def __exit__(self, *exc):
+        self.close()
+
+    def close(self):
+        if self.db is not None:
+            self.db.close()
+            self.db = None
+
+    def digest(self, path):
+        """Content hash of a file, computed once per run."""
+        path = os.path.abspath(path)
+        found = self.digests.get(path)
+        if found is None:
+            found = self.digests[path] = file_digest(path)
+        return found
+
+    def add_digests(self, digests):
+        """Known content hashes {path: digest}, e.g. from a corpus archive, used instead of reading the files."""
+        for path, digest in digests.items():
+            self.digests[os.path.abspath(path)] = digest
+
+    def duplicates(self, paths):
+        """
+        {path: earlier path with the same content} for the paths repeating an earlier one,
+        so a stage computes each distinct content once per run and copies the result.
+        """
+        first, repeated = {}, {}
+        for path in paths:
+            try:
+                digest = self.digest(path)
+            except OSError:
+                continue
+            if digest in first:
+                repeated[path] = first[digest]
+            else:
+                first[digest] = path
+        return repeated
+
+    def get(self, metric, version, paths):
+        """{path: value} for the paths whose current content has a cached result."""
+        if self.db is None:
+            return {}
+        by_digest = {}
+        for path in paths:
+            try:
+                by_digest.setdefault(self.digest(path), []).append(path)
+            except OSError:
+                continue
+        return {path: value for digest, value in self.lookup(metric, version, by_digest).items()
+                for path in by_digest[digest]}
+
+    def lookup(self, metric, version, digests):
+        """{digest: value} for content keys computed by the caller, e.g. of single methods."""
+        if self.db is None:
+            return {}
+        digests = list(digests)
+        hits = {}
+        with self.lock:
+            for i in range(0, len(digests), BATCH):
+                batch = digests[i:i + BATCH]
+                rows = self.db.execute(
+                    f"SELECT digest, value FROM results WHERE metric = ? AND version = ?"
+                    f" AND digest IN ({','.join('?' * len(batch))})", [metric, version, *batch])
+                for digest, value in rows:
+                    hits[digest] = json.loads(value)
+        return hits
+
+    def put(self, metric, version, results):
+        """Store {path: value}; None values (failed computations) are not cached."""
+        if self.db is None:
+            return
+        values = {}
+        for path, value in results.items():
+            if value is None:
+                continue
+            try:
+                values[self.digest(path)] = value
+            except OSError:
+                continue
+        self.store(metric, version, values)
+
+    def store(self, metric, version, values):
+        """Store {digest: value} under content keys computed by the caller."""
+        if self.db is None:
+            return
+        rows = [(digest, metric, version, json.dumps(value)) for digest, value in values.items() if value is not None]
+        with self.lock:
+            self.db.executemany("INSERT OR REPLACE INTO results VALUES (?, ?, ?, ?)", rows)
+            self.db.commit()
@@ -0,0 +1,265 @@
+"""Clients for Scalabrino et al.'s readability model (rsm.jar).
+
+ReadabilityClient talks to the long-lived scoring service
+(readability_server/ReadabilityServer.java): one server keeps rsm.jar and its
+classifier loaded for the whole run, and requests are pipelined. The server
+is started on the first request, and a server that dies is restarted, or
+replaced by one-shot runs when it cannot answer at all.
+score_files_batched() instead passes hundreds of files to each one-shot
+`java -jar rsm.jar` invocation.
+"""
+import os
+import base64
+import socket
+import logging
+import tempfile
+import threading
+import subprocess
+
+SCRIPT_DIR = os.path.dirname(os.path.abspath(__file__))
+SERVER_SOURCE = os.path.join(SCRIPT_DIR, "readability_server", "ReadabilityServer.java")
+MAX_BATCH_FILES = 500
+
+
+class ReadabilityClient:
+    def __init__(self, rsm_dir, java="java", socket_path=None):
+        """
+        Score through a server on stdin/stdout in `rsm_dir` (the folder with rsm.jar and
+        readability.classifier), started on the first request, or through one already
+        listening on `socket_path`.
+        """
+        self.rsm_dir = rsm_dir
+        self.java = java
+        self.process = None
+        self.socket = None
+        self.writer = self.reader = None
+        self.answered = 0      # responses from the current server
+        self.one_shot = False  # the server cannot answer: score with one-shot rsm.jar runs
+        if socket_path:
+            self.socket = socket.socket(socket.AF_UNIX, socket.SOCK_STREAM)
+            self.socket.connect(socket_path)
+            self.writer = self.socket.makefile("w", encoding="utf-8", newline="\n")
+            self.reader = self.socket.makefile("r", encoding="utf-8", newline="\n")
+        self.next_id = 0
+
+    def _start(self):
+        rsm_jar = os.path.join(os.path.abspath(self.rsm_dir), "rsm.jar")
+        # The server intercepts rsm's System.exit() with a SecurityManager, which JDK 18+ only allows on request
+        self.process = subprocess.Popen(
+            [self.java, "-Djava.security.manager=allow", SERVER_SOURCE, rsm_jar], cwd=self.rsm_dir,
+            stdin=subprocess.PIPE, stdout=subprocess.PIPE, stderr=subprocess.DEVNULL,
+            text=True, encoding="utf-8", bufsize=1
+        )
+        self.writer = self.process.stdin
+        self.reader = self.process.stdout
+        self.answered = 0
+
+    def _stop(self):
+        try:
+            if self.writer:
+                self.writer.close()
+        except OSError:
+            pass
+        if self.process:
+            self.process.wait()
+            self.process = None
+
+    def __enter__(self):
+        return self
+
+    def __exit__(self, *exc):
+        self.close()
+
+    def close(self):
+        self._stop()
+        if self.socket:
+            self.socket.close()
+
+    def _request_all(self, requests):
+        """Send (kind, payload) requests and return one score (or None) per request, in order."""
+        scores = []
+        while len(scores) < len(requests) and not self.one_shot:
+            if self.process is None and self.socket is None:
+                self._start()
+            scores += self._exchange(requests[len(scores):])
+            if len(scores) < len(requests):
+                # Responses come in order: the server died on the first unanswered request
+                scores += self._score_one_shot(requests[len(scores):len(scores) + 1])
+                self._restart()
+        return scores + self._score_one_shot(requests[len(scores):])
+
+    def _restart(self):
+        """Replace a dead server; one that died before answering anything is not tried again."""
+        if self.socket is not None or self.answered == 0:
+            logging.error("[Readability] Server unavailable, falling back to one-shot rsm.jar runs")
+            self.one_shot = True
+            return
+        logging.error(f"[Readability] Server exited after {self.answered} responses, restarting it")
+        self._stop()
+        self._start()
+
+    def _score_one_shot(self, requests):
+        """Scores of requests the server could not answer, from one-shot rsm.jar runs."""
+        if not requests:
+            return []
+        with tempfile.TemporaryDirectory(prefix="rsm-snippets") as snippet_dir:
+            paths = []
+            for offset, (kind, payload) in enumerate(requests):
+                if kind == "SNIPPET":
+                    path = os.path.join(snippet_dir, f"Snippet{offset}.java")
+                    with open(path, "wb") as f:
+                        f.write(base64.b64decode(payload))
+                    payload = path
+                paths.append(payload)
+            scores = score_files_batched(self.rsm_dir, paths, self.java)
+        return [scores.get(path) for path in paths]
+
+    def _exchange(self, requests):
+        """Scores of the requests the server answered before closing the connection, in order."""
+        first_id = self.next_id
+        self.next_id += len(requests)
+
+        def send():
+            try:
+                for offset, (kind, payload) in enumerate(requests):
+                    self.writer.write(f"{first_id + offset}\t{kind}\t{payload}\n")
+                self.writer.flush()
+            except OSError as e:
+                logging.error(f"[Readability] Server connection lost while sending: {e}")
+
+        sender = threading.Thread(target=send, daemon=True)
+        sender.start()
+        scores = []
+        for _ in requests:
+            line = self.reader.readline()
+            if not line:
+                logging.error("[Readability] Server closed the connection")
+                break
+            _, status, value = line.rstrip("\n").split("\t", 2)
+            if status == "OK":
+                scores.append(float(value))
+            else:
+                logging.error(f"[Readability] {value}")
+                scores.append(None)
+        sender.join()
+        self.answered += len(scores)
+        return scores
+
+    def score_files(self, java_file_paths):
+        """Readability of each file (class score = mean of its methods), keyed by path."""
+        paths = list(java_file_paths)
+        scores = self._request_all([("FILE", os.path.abspath(path)) for path in paths])
+        return dict(zip(paths, scores))
+
+    def score_file(self, java_file_path):
+        return self.score_files([java_file_path])[java_file_path]
+
+    def score_snippets(self, snippets):
+        """Readability of in-memory code snippets, one score per snippet."""
+        return self._request_all([
+            ("SNIPPET", base64.b64encode(snippet.encode("utf-8")).decode("ascii")) for snippet in snippets
+        ])
+
+    def score_methods(self, java_file_path):
+        """[(method name, readability)] for every method declared in a file."""
+        from complexity_engine import parser
+        with open(java_file_path, "rb") as f:
+            source = f.read()
+        tree = parser.parse(source)
+        names, snippets = [], []
+        stack = [tree.root_node]
+        while stack:
+            node = stack.pop()
+            if node.type == "method_declaration":
+                name = node.child_by_field_name("name")
+                names.append(source[name.start_byte:name.end_byte].decode("utf-8") if name else "")
+                snippets.append(source[node.start_byte:node.end_byte].decode("utf-8"))
+            stack.extend(reversed(node.children))
+        return list(zip(names, self.score_snippets(snippets)))
+
+
+# === One-shot batched invocations ===
+def command_line_budget():
+    """Bytes available for file arguments on one command line of this platform."""
+    if os.name == "nt":
+        return 32767 - 1024
+    try:
+        arg_max = os.sysconf("SC_ARG_MAX")
+    except (ValueError, OSError, AttributeError):
+        arg_max = 131072
+    # Arguments share ARG_MAX with the environment; keep a margin for the java command itself
+    env_size = sum(len(key) + len(value) + 2 for key, value in os.environ.items())
+    return max(4096, arg_max - env_size - 4096)
+
+def chunk_paths(paths, max_files=MAX_BATCH_FILES, budget=None):
+    """Split paths into chunks of at most max_files whose arguments fit in budget bytes."""
+    budget = command_line_budget() if budget is None else budget
+    chunk, size = [], 0
+    for path in paths:
+        cost = len(os.fsencode(path)) + 1 + 8  # bytes, NUL terminator and argv pointer
+        if chunk and (len(chunk) >= max_files or size + cost > budget):
+            yield chunk
+            chunk, size = [], 0
+        chunk.append(path)
+        size += cost
+    if chunk:
+        yield chunk
+
+def _run_rsm(rsm_dir, paths, java):
+    """Run rsm.jar once on absolute paths and return {path: score} for the files it scored."""
+    result = subprocess.run(
+        [java, "-jar", "rsm.jar", *paths], cwd=rsm_dir,
+        stdout=subprocess.PIPE, stderr=subprocess.PIPE, text=True
+    )
+    wanted = set(paths)
+    rsm_dir = os.path.abspath(rsm_dir)
+    scores = {}
+    for line in result.stdout.splitlines():
+        if '\t' not in line or line.startswith('file') or line.startswith('[INFO]'):
+            continue
+        fname, score_str = map(str.strip, line.split('\t', 1))
+        # Demultiplex by full path, never by basename: iterations share file names
+        path = os.path.normpath(os.path.join(rsm_dir, fname))
+        if path not in wanted:
+            logging.warning(f"[Readability] Unexpected output line for {fname}")
+            continue
+        try:
+            scores[path] = float(score_str)
+        except ValueError:
+            logging.error(f"[Readability] Invalid float '{score_str}' for {fname}")
+    if result.returncode != 0:
+        logging.error(f"[Readability] rsm.jar exited with {result.returncode} on {len(paths)} files: "
+                      f"{result.stderr.strip()[-500:]}")
+    return scores
+
+def score_files_batched(rsm_dir, java_file_paths, java="java", max_files=MAX_BATCH_FILES):
+    """
+    Readability of many files with few JVM launches, keyed by the given paths.
+
+    Files are sent in chunks sized to the command-line limit. When a chunk fails
+    or leaves files unscored, the unscored files are bisected and retried, so a
+    single unparseable file only costs its own score (None).
+    """
+    originals = {}
+    for path in java_file_paths:
+        originals.setdefault(os.path.normpath(os.path.abspath(path)), []).append(path)
+
+    scores = {}
+    pending = list(chunk_paths(list(originals), max_files))
+    while pending:
+        chunk = pending.pop()
+        found = _run_rsm(rsm_dir, chunk, java)
+        scores.update(found)
+        missing = [path for path in chunk if path not in found]
+        if not missing:
+            continue
+        if len(chunk) == 1:
+            logging.error(f"[Readability] No score found for {chunk[0]}")
+        elif len(missing) == 1:
+            pending.append(missing)
+        else:
+            middle = len(missing) // 2
+            pending.extend([missing[middle:], missing[:middle]])
+
+    return {original: scores.get(path)
+            for path, group in originals.items() for original in group}
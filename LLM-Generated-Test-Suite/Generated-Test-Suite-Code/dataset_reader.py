@@ -0,0 +1 @@
+../Generated-Test-Suite/dataset_reader.py
\ No newline at end of file
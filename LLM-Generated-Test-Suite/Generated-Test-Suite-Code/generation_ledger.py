@@ -0,0 +1 @@
+../Generated-Test-Suite/generation_ledger.py
\ No newline at end of file
@@ -0,0 +1 @@
+../Generated-Test-Suite/llm_generation.py
\ No newline at end of file
@@ -0,0 +1 @@
+../Generated-Test-Suite/mock_llm_server.py
\ No newline at end of file
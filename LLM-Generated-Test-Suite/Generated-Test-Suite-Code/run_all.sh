@@ -0,0 +1 @@
+../Generated-Test-Suite/run_all.sh
\ No newline at end of file
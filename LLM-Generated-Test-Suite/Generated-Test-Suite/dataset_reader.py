@@ -0,0 +1,148 @@
+"""Lazy, indexed access to the Defects4J / SF110 dataset JSON files.
+
+A dataset is a JSON array of {project_name, class, [bug-id,] fqdn, source_code}
+entries. The first time a file is opened it is streamed entry by entry into a
+JSON Lines copy next to it (<name>.jsonl) with a byte-offset index
+(<name>.jsonl.idx), both rebuilt when the source file changes. Afterwards:
+
+  - iterating reads one line at a time, never the whole dataset;
+  - keys() lists (project, class, bug-id) from the index without parsing any entry;
+  - get(project, class, bug_id) seeks straight to one entry;
+  - shard(i, n) yields only the entries of shard i out of n.
+
+Usage: python3 dataset_reader.py DATASET.json [PROJECT CLASS [BUG_ID]]
+"""
+import os
+import sys
+import json
+
+CHUNK_SIZE = 1 << 16
+INDEX_VERSION = 1
+
+def iter_json_array(path, chunk_size=CHUNK_SIZE):
+    """Yield the elements of a top-level JSON array one by one, reading the file in chunks."""
+    decoder = json.JSONDecoder()
+    with open(path, "r", encoding="utf-8") as f:
+        buffer, pos, started = "", 0, False
+        while True:
+            # Skip whitespace, the opening bracket and separators
+            while pos < len(buffer) and (buffer[pos].isspace() or buffer[pos] == "," or (not started and buffer[pos] == "[")):
+                started = started or buffer[pos] == "["
+                pos += 1
+            if pos < len(buffer) and started and buffer[pos] == "]":
+                return
+            if pos < len(buffer):
+                try:
+                    element, end = decoder.raw_decode(buffer, pos)
+                except json.JSONDecodeError:
+                    element = end = None
+                if end is not None and end < len(buffer):
+                    yield element
+                    pos = end
+                    continue
+            # The element is cut by the end of the buffer: read more, doubling
+            # the read size so a large element is not decoded over and over
+            more = f.read(max(chunk_size, len(buffer) - pos))
+            if not more:
+                if pos < len(buffer) and started:
+                    element, end = decoder.raw_decode(buffer, pos)
+                    yield element
+                    pos = end
+                    continue
+                if started:
+                    raise ValueError(f"{path}: unterminated JSON array")
+                return
+            buffer, pos = buffer[pos:] + more, 0
+
+def entry_key(entry):
+    """(project, class, bug-id) of an entry; bug-id is None for SF110."""
+    bug_id = entry.get("bug-id")
+    return entry["project_name"], entry["class"], None if bug_id is None else str(bug_id)
+
+class DatasetReader:
+    def __init__(self, json_path):
+        self.json_path = str(json_path)
+        self.lines_path = os.path.splitext(self.json_path)[0] + ".jsonl"
+        self.index_path = self.lines_path + ".idx"
+        self.entries = self._load_index()
+        if self.entries is None:
+            self.entries = self._convert()
+        self.positions = {}
+        for position, (project, clazz, bug_id, _, _, _) in enumerate(self.entries):
+            self.positions.setdefault((project, clazz, bug_id), position)
+
+    def _source_stamp(self):
+        st = os.stat(self.json_path)
+        return [st.st_size, st.st_mtime_ns]
+
+    def _load_index(self):
+        try:
+            with open(self.index_path, "r", encoding="utf-8") as f:
+                index = json.load(f)
+        except (OSError, ValueError):
+            return None
+        if index.get("version") != INDEX_VERSION or index.get("source") != self._source_stamp() \
+                or not os.path.exists(self.lines_path):
+            return None
+        return [tuple(entry) for entry in index["entries"]]
+
+    def _convert(self):
+        """Stream the JSON array into JSON Lines; index entries are (project, class, bug-id, offset, length, empty)."""
+        entries = []
+        tmp_lines, tmp_index = f"{self.lines_path}.tmp", f"{self.index_path}.tmp"
+        with open(tmp_lines, "wb") as out:
+            for entry in iter_json_array(self.json_path):
+                line = json.dumps(entry, ensure_ascii=False).encode("utf-8") + b"\n"
+                empty = not entry.get("source_code", "").strip()
+                entries.append((*entry_key(entry), out.tell(), len(line), empty))
+                out.write(line)
+        with open(tmp_index, "w", encoding="utf-8") as f:
+            json.dump({"version": INDEX_VERSION, "source": self._source_stamp(), "entries": entries}, f)
+        os.replace(tmp_lines, self.lines_path)
+        os.replace(tmp_index, self.index_path)
+        return entries
+
+    def __len__(self):
+        return len(self.entries)
+
+    def __iter__(self):
+        with open(self.lines_path, "rb") as f:
+            for line in f:
+                yield json.loads(line)
+
+    def keys(self):
+        """(project, class, bug-id, has empty source) of every entry, in file order, without parsing them."""
+        return [(project, clazz, bug_id, empty) for project, clazz, bug_id, _, _, empty in self.entries]
+
+    def _read(self, f, position):
+        _, _, _, offset, length, _ = self.entries[position]
+        f.seek(offset)
+        return json.loads(f.read(length))
+
+    def get(self, project, clazz, bug_id=None):
+        """The entry of a class, or None; bug_id is only given for Defects4J."""
+        position = self.positions.get((project, clazz, None if bug_id is None else str(bug_id)))
+        if position is None:
+            return None
+        with open(self.lines_path, "rb") as f:
+            return self._read(f, position)
+
+    def shard(self, index, count):
+        """Entries index, index + count, ... of the dataset."""
+        with open(self.lines_path, "rb") as f:
+            for position in range(index, len(self.entries), count):
+                yield self._read(f, position)
+
+def main():
+    if len(sys.argv) < 2:
+        print(__doc__.strip().splitlines()[-1])
+        sys.exit(1)
+    reader = DatasetReader(sys.argv[1])
+    if len(sys.argv) >= 4:
+        entry = reader.get(*sys.argv[2:5])
+        print(json.dumps(entry, indent=4) if entry else "Not found")
+    else:
+        print(f"{len(reader)} entries indexed in {reader.index_path}")
+
+if __name__ == "__main__":
+    main()
@@ -0,0 +1,129 @@
+"""Write-ahead ledger of generation jobs, shared by every llm_generation.py process.
+
+Each (provider, dataset, project, class, bug, iteration) job is a row whose
+state moves pending -> running -> done | failed, with its attempts, tokens
+used, latency and last error. Processes claim pending jobs under a lease in
+one transaction, so concurrent runs never generate the same suite twice and
+the jobs of a crashed run are picked up again once its lease expires. A
+restart reads the ledger instead of probing the output tree; the tree is
+only consulted once, when a job is first recorded, to adopt suites generated
+before the ledger existed.
+"""
+import os
+import time
+import sqlite3
+
+LEDGER_VERSION = 1
+PENDING, RUNNING, DONE, FAILED, SKIPPED = "pending", "running", "done", "failed", "skipped"
+
+class JobLedger:
+    def __init__(self, path):
+        self.db = sqlite3.connect(path, timeout=60, isolation_level=None)
+        self.db.execute("PRAGMA journal_mode=WAL")
+        self.db.execute("PRAGMA synchronous=NORMAL")
+        self.db.execute(
+            "CREATE TABLE IF NOT EXISTS jobs ("
+            " provider TEXT NOT NULL, dataset TEXT NOT NULL, project TEXT NOT NULL, class TEXT NOT NULL,"
+            " bug_id TEXT NOT NULL, iteration INTEGER NOT NULL, output TEXT NOT NULL,"
+            " state TEXT NOT NULL, attempts INTEGER NOT NULL DEFAULT 0, tokens INTEGER, latency REAL,"
+            " owner TEXT, lease_until REAL, updated REAL, error TEXT,"
+            " PRIMARY KEY (provider, dataset, project, class, bug_id, iteration))"
+        )
+        self.db.execute("CREATE INDEX IF NOT EXISTS jobs_by_state ON jobs (provider, state)")
+        self.db.execute("CREATE TABLE IF NOT EXISTS seeded (provider TEXT PRIMARY KEY, signature TEXT NOT NULL)")
+
+    def close(self):
+        self.db.close()
+
+    def is_seeded(self, provider, signature):
+        row = self.db.execute("SELECT signature FROM seeded WHERE provider = ?", (provider,)).fetchone()
+        return row is not None and row[0] == f"{LEDGER_VERSION}:{signature}"
+
+    def seed(self, provider, jobs, signature):
+        """
+        Record (dataset, project, class, bug_id, iteration, output, skip) jobs not yet in the
+        ledger. A new job whose output already exists is adopted as done; skipped jobs
+        (empty sources) are recorded so they are reported once. Returns the new jobs.
+        """
+        known = {tuple(row) for row in self.db.execute(
+            "SELECT dataset, project, class, bug_id, iteration FROM jobs WHERE provider = ?", (provider,))}
+        now = time.time()
+        rows = []
+        for dataset, project, clazz, bug_id, iteration, output, skip in jobs:
+            if (dataset, project, clazz, bug_id, iteration) in known:
+                continue
+            state = SKIPPED if skip else DONE if os.path.exists(output) else PENDING
+            rows.append((provider, dataset, project, clazz, bug_id, iteration, output, state, now))
+        self.db.execute("BEGIN IMMEDIATE")
+        self.db.executemany(
+            "INSERT OR IGNORE INTO jobs (provider, dataset, project, class, bug_id, iteration, output, state, updated)"
+            " VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?)", rows)
+        self.db.execute("INSERT OR REPLACE INTO seeded VALUES (?, ?)", (provider, f"{LEDGER_VERSION}:{signature}"))
+        self.db.execute("COMMIT")
+        return rows
+
+    def claim(self, provider, limit, owner, lease, max_attempts):
+        """
+        Atomically take up to `limit` runnable jobs: pending ones, failed ones with attempts
+        left and running ones whose lease expired. Returns (dataset, project, class, bug_id,
+        iteration, output) rows.
+        """
+        now = time.time()
+        self.db.execute("BEGIN IMMEDIATE")
+        try:
+            rows = self.db.execute(
+                "SELECT dataset, project, class, bug_id, iteration, output FROM jobs WHERE provider = ? AND ("
+                " state = ? OR (state = ? AND attempts < ?) OR (state = ? AND lease_until < ?))"
+                " ORDER BY dataset, project, class, bug_id, iteration LIMIT ?",
+                (provider, PENDING, FAILED, max_attempts, RUNNING, now, limit)).fetchall()
+            self.db.executemany(
+                "UPDATE jobs SET state = ?, owner = ?, lease_until = ?, attempts = attempts + 1, updated = ?"
+                " WHERE provider = ? AND dataset = ? AND project = ? AND class = ? AND bug_id = ? AND iteration = ?",
+                [(RUNNING, owner, now + lease, now, provider, *row[:5]) for row in rows])
+            self.db.execute("COMMIT")
+        except BaseException:
+            self.db.execute("ROLLBACK")
+            raise
+        return rows
+
+    def _finish(self, provider, job, state, tokens=None, latency=None, error=None):
+        self.db.execute(
+            "UPDATE jobs SET state = ?, tokens = ?, latency = ?, error = ?, owner = NULL, lease_until = NULL, updated = ?"
+            " WHERE provider = ? AND dataset = ? AND project = ? AND class = ? AND bug_id = ? AND iteration = ?",
+            (state, tokens, latency, error, time.time(), provider, *job[:5]))
+
+    def complete(self, provider, job, tokens, latency):
+        self._finish(provider, job, DONE, tokens, latency)
+
+    def fail(self, provider, job, error, latency):
+        self._finish(provider, job, FAILED, latency=latency, error=error)
+
+    def release(self, provider, jobs):
+        """Hand back claimed jobs that were never started, e.g. on interruption."""
+        self.db.execute("BEGIN IMMEDIATE")
+        for job in jobs:
+            self.db.execute(
+                "UPDATE jobs SET state = ?, attempts = attempts - 1, owner = NULL, lease_until = NULL"
+                " WHERE provider = ? AND dataset = ? AND project = ? AND class = ? AND bug_id = ? AND iteration = ?"
+                " AND state = ?", (PENDING, provider, *job[:5], RUNNING))
+        self.db.execute("COMMIT")
+
+    def reset_missing(self, provider):
+        """Requeue finished jobs whose output was deleted; returns how many."""
+        missing = [row for row in self.db.execute(
+            "SELECT dataset, project, class, bug_id, iteration, output FROM jobs WHERE provider = ? AND state = ?",
+            (provider, DONE)) if not os.path.exists(row[5])]
+        self.db.execute("BEGIN IMMEDIATE")
+        for job in missing:
+            self.db.execute(
+                "UPDATE jobs SET state = ?, attempts = 0, updated = ?"
+                " WHERE provider = ? AND dataset = ? AND project = ? AND class = ? AND bug_id = ? AND iteration = ?",
+                (PENDING, time.time(), provider, *job[:5]))
+        self.db.execute("COMMIT")
+        return len(missing)
+
+    def summary(self, provider):
+        """{state: (jobs, tokens, mean latency)} of a provider."""
+        return {state: (count, tokens or 0, latency) for state, count, tokens, latency in self.db.execute(
+            "SELECT state, COUNT(*), SUM(tokens), AVG(latency) FROM jobs WHERE provider = ? GROUP BY state",
+            (provider,))}
@@ -0,0 +1,618 @@
+"""Asynchronous test suite generation service.
+
+One process generates with every provider over every dataset part, replacing
+the per-model, per-part generation scripts. Jobs are listed from the dataset
+indexes and sources read on demand (dataset_reader.py). They are pulled from
+a queue by --in-flight workers per provider, so a slow class only holds up
+the worker serving it. Every request is admitted by the
+provider's request-per-minute and token-per-minute buckets, shared by all its
+workers, so throughput is bounded by the quota rather than by response
+latency. Failed and rate limited requests back off exponentially with full
+jitter, or for as long as Retry-After asks.
+
+The iterations of a class share one prompt: it is trimmed and counted once,
+and where the provider supports `n` they are asked for in a single request
+(--samples); elsewhere they go out as parallel single requests.
+
+Jobs live in a SQLite ledger (generation_ledger.py): a restart resumes from
+it without probing the output tree, and concurrent runs claim disjoint jobs.
+Outputs are written to a temporary file and renamed into place, so a crash
+never leaves a truncated suite behind.
+
+Providers implement Provider._request(): GPT and MISTRAL speak the chat
+completions API over plain HTTP (--base-url points them at a mock server),
+STUB answers locally for offline runs:
+
+    python3 llm_generation.py --provider STUB
+    python3 mock_llm_server.py --port 8000 &
+    python3 llm_generation.py --provider GPT --base-url http://127.0.0.1:8000/v1
+"""
+import os
+import ssl
+import json
+import time
+import random
+import asyncio
+import socket
+import argparse
+import hashlib
+import email.utils
+from pathlib import Path
+from collections import OrderedDict
+from urllib.parse import urlsplit
+
+from mock_llm_server import mock_completion
+from generation_ledger import JobLedger
+from dataset_reader import DatasetReader
+
+try:
+    from dotenv import load_dotenv
+    load_dotenv()
+except ImportError:
+    pass
+
+# Generation settings of the original scripts
+MAX_TOTAL_TOKENS = 128000
+RESERVED_RESPONSE_TOKENS = 16000
+TEMPERATURE = 0.1
+NUM_ITERATIONS = 15
+MAX_RETRIES = 30
+PREPARED_PROMPTS = 256  # classes whose trimmed prompt and token count are kept
+
+# Backoff: full jitter over base * 2^attempt seconds, capped
+BACKOFF_BASE = 1.0
+BACKOFF_CAP = 60.0
+RETRYABLE_STATUS = {408, 409, 429, 500, 502, 503, 504}
+REQUEST_TIMEOUT = 600
+
+# Output and logging directories
+OUTPUT_BASE_DIR = "Generated-TestSuite-output"
+LOG_DIR = "error_logs"
+LEDGER_PATH = "generation_ledger.sqlite"
+
+# Ledger: runs of a job before it is left failed, and how long a claim is held
+MAX_JOB_ATTEMPTS = 3
+LEASE_SECONDS = 3600
+
+# Symlinks are not resolved: Generated-Test-Suite-Code links to this script and reads its own DATASET
+SCRIPT_DIR = Path(os.path.abspath(__file__)).parent
+DATASET_BASE_PATH = SCRIPT_DIR / "DATASET"
+DATASETS = {"Defects4J": True, "SF110": False}  # dataset -> has_bug_id
+
+def log_error(file_path, message):
+    """Log errors to a file in the error log directory."""
+    os.makedirs(LOG_DIR, exist_ok=True)
+    log_path = os.path.join(LOG_DIR, f"{file_path}.log")
+    with open(log_path, "a") as log_file:
+        log_file.write(f"{message}\n")
+
+def generate_test_prompt(class_name, source_code):
+    """Generate the test generation prompt for the LLM."""
+    return f"""
+As a professional software tester who writes Java test methods, generate a complete JUnit 4 test suite to comprehensively test all methods in the following class named {class_name}. 
+
+Here is the source code:
+{source_code}
+
+Please ensure the generated test suite is enclosed within triple backticks ``` ``` for easy extraction.
+"""
+
+# === Rate limiting ===
+class TokenBucket:
+    """Budget refilled continuously at `per_minute` units a minute, holding at most one minute's worth."""
+
+    def __init__(self, per_minute):
+        self.capacity = float(per_minute)
+        self.rate = per_minute / 60.0
+        self.level = self.capacity
+        self.updated = time.monotonic()
+        self.lock = asyncio.Lock()
+
+    def _refill(self):
+        now = time.monotonic()
+        self.level = min(self.capacity, self.level + (now - self.updated) * self.rate)
+        self.updated = now
+
+    async def acquire(self, amount):
+        """Wait until `amount` units are available and take them; waiters are served in order."""
+        amount = min(amount, self.capacity)
+        async with self.lock:
+            while True:
+                self._refill()
+                if self.level >= amount:
+                    self.level -= amount
+                    return
+                await asyncio.sleep((amount - self.level) / self.rate)
+
+    def refund(self, amount):
+        """Give back units reserved but not used, e.g. unused completion tokens."""
+        self._refill()
+        self.level = min(self.capacity, self.level + amount)
+
+def parse_retry_after(headers):
+    """Seconds to wait from Retry-After (seconds or HTTP date) or retry-after-ms; None if absent."""
+    if "retry-after-ms" in headers:
+        try:
+            return max(0.0, float(headers["retry-after-ms"]) / 1000)
+        except ValueError:
+            pass
+    value = headers.get("retry-after")
+    if value is None:
+        return None
+    try:
+        return max(0.0, float(value))
+    except ValueError:
+        try:
+            return max(0.0, email.utils.parsedate_to_datetime(value).timestamp() - time.time())
+        except (TypeError, ValueError):
+            return None
+
+def backoff_delay(attempt, retry_after=None, base=BACKOFF_BASE, cap=BACKOFF_CAP):
+    """Retry-After when the server sent one, otherwise full jitter exponential backoff."""
+    if retry_after is not None:
+        return retry_after + random.uniform(0, base)
+    return random.uniform(0, min(cap, base * 2 ** attempt))
+
+# === HTTP ===
+class HttpError(Exception):
+    def __init__(self, status, headers, body):
+        super().__init__(f"HTTP {status}: {body[:200].decode('utf-8', 'replace')}")
+        self.status = status
+        self.headers = headers
+
+async def _read_response(reader):
+    """(status, lower-cased headers, body, keep_alive) of one HTTP/1.1 response."""
+    status_line = await reader.readline()
+    if not status_line:
+        raise ConnectionResetError("connection closed by server")
+    status = int(status_line.split()[1])
+    headers = {}
+    while True:
+        line = await reader.readline()
+        if line in (b"\r\n", b"\n", b""):
+            break
+        name, _, value = line.decode("latin-1").partition(":")
+        headers[name.strip().lower()] = value.strip()
+
+    keep_alive = headers.get("connection", "").lower() != "close"
+    if headers.get("transfer-encoding", "").lower() == "chunked":
+        chunks = []
+        while True:
+            size = int((await reader.readline()).split(b";")[0], 16)
+            if size == 0:
+                while (await reader.readline()) not in (b"\r\n", b"\n", b""):
+                    pass  # trailers
+                break
+            chunks.append(await reader.readexactly(size))
+            await reader.readexactly(2)
+        body = b"".join(chunks)
+    elif "content-length" in headers:
+        body = await reader.readexactly(int(headers["content-length"]))
+    else:
+        body = await reader.read()
+        keep_alive = False
+    return status, headers, body, keep_alive
+
+class HttpClient:
+    """Minimal keep-alive HTTP/1.1 client for JSON POSTs to one host."""
+
+    def __init__(self, base_url):
+        parts = urlsplit(base_url)
+        self.host = parts.hostname
+        self.tls = parts.scheme == "https"
+        self.port = parts.port or (443 if self.tls else 80)
+        self.prefix = parts.path.rstrip("/")
+        self.ssl_context = ssl.create_default_context() if self.tls else None
+        self.idle = []
+
+    async def _connect(self):
+        return await asyncio.open_connection(self.host, self.port, ssl=self.ssl_context)
+
+    async def post_json(self, path, headers, payload, timeout=REQUEST_TIMEOUT):
+        """POST payload as JSON; returns (status, headers, body bytes)."""
+        body = json.dumps(payload).encode("utf-8")
+        request = [f"POST {self.prefix}{path} HTTP/1.1", f"Host: {self.host}",
+                   "Content-Type: application/json", "Accept: application/json",
+                   f"Content-Length: {len(body)}"]
+        request += [f"{name}: {value}" for name, value in headers.items()]
+        data = ("\r\n".join(request) + "\r\n\r\n").encode("utf-8") + body
+
+        while True:
+            reused = bool(self.idle)
+            reader, writer = self.idle.pop() if reused else await self._connect()
+            try:
+                writer.write(data)
+                await writer.drain()
+                status, resp_headers, resp_body, keep_alive = await asyncio.wait_for(_read_response(reader), timeout)
+            except (ConnectionError, asyncio.IncompleteReadError) as e:
+                writer.close()
+                if reused:
+                    continue  # the server dropped an idle connection; retry once per idle one
+                raise ConnectionError(str(e) or type(e).__name__) from e
+            except BaseException:
+                writer.close()
+                raise
+            if keep_alive:
+                self.idle.append((reader, writer))
+            else:
+                writer.close()
+            return status, resp_headers, resp_body
+
+    def close(self):
+        for _, writer in self.idle:
+            writer.close()
+        self.idle = []
+
+# === Providers ===
+class Provider:
+    """
+    One model behind a shared quota. Subclasses implement _request(); retries,
+    backoff and rate limiting are common to every provider.
+    """
+    name = None
+    rpm = 60
+    tpm = 100000
+    max_samples = 1  # completions one request may ask for (the API's `n`)
+
+    def __init__(self, rpm=None, tpm=None, retries=MAX_RETRIES):
+        self.requests = TokenBucket(rpm or self.rpm)
+        self.tokens = TokenBucket(tpm or self.tpm)
+        self.retries = retries
+        self.paused_until = 0.0
+        self.prepared_prompts = OrderedDict()
+
+    def prepare(self, prompt, max_total_tokens=MAX_TOTAL_TOKENS, reserved_tokens=RESERVED_RESPONSE_TOKENS):
+        """
+        (prompt cut to the context window, its estimated token count), by characters
+        unless the provider has a tokenizer. The count is charged against the token
+        bucket until the response reports the real usage.
+        """
+        prompt = prompt[:max_total_tokens - reserved_tokens]
+        return prompt, len(prompt) // 3 + 1
+
+    def prepared(self, key, prompt):
+        """prepare() memoized per class, as every iteration of a class sends the same prompt."""
+        found = self.prepared_prompts.get(key)
+        if found is None:
+            found = self.prepared_prompts[key] = self.prepare(prompt)
+            if len(self.prepared_prompts) > PREPARED_PROMPTS:
+                self.prepared_prompts.popitem(last=False)
+        else:
+            self.prepared_prompts.move_to_end(key)
+        return found
+
+    async def _request(self, prompt, n):
+        """([n completion texts], total tokens used or None); raises HttpError or OSError on failure."""
+        raise NotImplementedError
+
+    async def _admit(self, cost):
+        # A Retry-After pauses the whole provider, not just the request that got it
+        while time.monotonic() < self.paused_until:
+            await asyncio.sleep(self.paused_until - time.monotonic())
+        await self.requests.acquire(1)
+        await self.tokens.acquire(cost)
+
+    async def complete(self, prompt, n=1, key=None):
+        """
+        ([n completion texts], tokens used or None) of one prompt, retrying transient
+        failures; raises RuntimeError when out of retries. `key` names the class the
+        prompt is for, to reuse its prepared prompt.
+        """
+        prompt, prompt_tokens = self.prepared(key, prompt) if key else self.prepare(prompt)
+        cost = prompt_tokens + n * RESERVED_RESPONSE_TOKENS
+
+        for attempt in range(self.retries):
+            await self._admit(cost)
+            retry_after = None
+            try:
+                texts, used = await self._request(prompt, n)
+                if used is not None:
+                    self.tokens.refund(max(0, cost - used))
+                return [text.strip() for text in texts], used
+            except HttpError as e:
+                if e.status not in RETRYABLE_STATUS:
+                    raise RuntimeError(str(e))
+                error = str(e)
+                retry_after = parse_retry_after(e.headers)
+                if retry_after is not None:
+                    self.paused_until = max(self.paused_until, time.monotonic() + retry_after)
+            except (OSError, asyncio.TimeoutError, ValueError, KeyError, IndexError) as e:
+                error = f"{type(e).__name__}: {e}"
+
+            delay = backoff_delay(attempt, retry_after)
+            print(f"[{self.name}] {error}; retrying in {delay:.1f}s ({attempt + 1}/{self.retries})")
+            await asyncio.sleep(delay)
+        raise RuntimeError(f"Failed after {self.retries} attempts: {error}")
+
+    def close(self):
+        pass
+
+class ChatCompletionsProvider(Provider):
+    """Provider serving the OpenAI-style /chat/completions API."""
+    base_url = None
+    api_key_env = None
+    model = None
+
+    def __init__(self, base_url=None, api_key_env=None, **limits):
+        super().__init__(**limits)
+        self.http = HttpClient(base_url or self.base_url)
+        self.api_key = os.getenv(api_key_env or self.api_key_env, "")
+
+    async def _request(self, prompt, n):
+        payload = {
+            "model": self.model,
+            "messages": [{"role": "user", "content": prompt}],
+            "max_tokens": RESERVED_RESPONSE_TOKENS,
+            "temperature": TEMPERATURE,
+        }
+        if n > 1:
+            payload["n"] = n
+        headers = {"Authorization": f"Bearer {self.api_key}"}
+        status, resp_headers, body = await self.http.post_json("/chat/completions", headers, payload)
+        if status != 200:
+            raise HttpError(status, resp_headers, body)
+        response = json.loads(body)
+        choices = sorted(response["choices"], key=lambda choice: choice.get("index", 0))
+        return [choice["message"]["content"] for choice in choices], response.get("usage", {}).get("total_tokens")
+
+    def close(self):
+        self.http.close()
+
+# Default quotas; override with --rpm / --tpm to match the account tier
+class OpenAIProvider(ChatCompletionsProvider):
+    name = "GPT"
+    base_url = "https://api.openai.com/v1"
+    api_key_env = "OPENAI_API_KEY-1"
+    model = "gpt-4o"
+    rpm = 500
+    tpm = 450000
+    max_samples = 128
+
+    def __init__(self, **kwargs):
+        super().__init__(**kwargs)
+        import tiktoken
+        self.encoding = tiktoken.encoding_for_model(self.model)
+
+    def prepare(self, prompt, max_total_tokens=MAX_TOTAL_TOKENS, reserved_tokens=RESERVED_RESPONSE_TOKENS):
+        max_prompt_tokens = max_total_tokens - reserved_tokens
+        tokens = self.encoding.encode(prompt)
+        if len(tokens) > max_prompt_tokens:
+            return self.encoding.decode(tokens[:max_prompt_tokens]), max_prompt_tokens
+        return prompt, len(tokens)
+
+class MistralProvider(ChatCompletionsProvider):
+    name = "MISTRAL"
+    base_url = "https://api.mistral.ai/v1"
+    api_key_env = "MISTRAL_API_KEY-1"
+    model = "mistral-large-2407"
+    rpm = 60
+    tpm = 500000
+
+class StubProvider(Provider):
+    """Offline provider answering every prompt with a minimal test suite after `latency` seconds."""
+    name = "STUB"
+    rpm = 6000
+    tpm = 100000000
+    max_samples = 128
+
+    def __init__(self, latency=0.05, error_rate=0.0, base_url=None, **limits):
+        super().__init__(**limits)
+        self.latency = latency
+        self.error_rate = error_rate
+
+    async def _request(self, prompt, n):
+        await asyncio.sleep(self.latency)
+        if random.random() < self.error_rate:
+            raise HttpError(503, {}, b"stub failure")
+        content = mock_completion(prompt)
+        return [content] * n, (len(prompt) + n * len(content)) // 3
+
+PROVIDERS = {provider.name: provider for provider in (OpenAIProvider, MistralProvider, StubProvider)}
+
+# === Jobs ===
+def save_generated_test(filepath, content):
+    """Save the generated test suite atomically: written aside, then renamed into place."""
+    os.makedirs(os.path.dirname(filepath), exist_ok=True)
+    tmp_path = f"{filepath}.tmp-{os.getpid()}"
+    with open(tmp_path, "w", encoding="utf-8") as f:
+        f.write(content)
+        f.flush()
+        os.fsync(f.fileno())
+    os.replace(tmp_path, filepath)
+
+def dataset_files(dataset_name):
+    """Every part of a dataset; the whole dataset if it was never split."""
+    parts = sorted(DATASET_BASE_PATH.glob(f"{dataset_name}_unique_dataset_part*.json"))
+    return parts or sorted(DATASET_BASE_PATH.glob(f"{dataset_name}_unique_dataset.json"))
+
+class DatasetSources:
+    """
+    Every dataset part behind its JSON Lines index (dataset_reader.py): jobs are
+    listed from the indexes and a class's source is read only when a worker needs it.
+    """
+
+    def __init__(self):
+        self.parts = [(dataset_name, has_bug_id, DatasetReader(dataset_path))
+                      for dataset_name, has_bug_id in DATASETS.items()
+                      for dataset_path in dataset_files(dataset_name)]
+
+    def classes(self):
+        """(dataset, project, class, bug_id, has empty source) of every class, "null" bug_id for SF110."""
+        for dataset_name, has_bug_id, reader in self.parts:
+            for project_name, class_name, bug_id, empty in reader.keys():
+                yield dataset_name, project_name, class_name, bug_id if has_bug_id else "null", empty
+
+    def __getitem__(self, class_key):
+        dataset_name, project_name, class_name, bug_id = class_key
+        for part_dataset, has_bug_id, reader in self.parts:
+            if part_dataset == dataset_name:
+                entry = reader.get(project_name, class_name, bug_id if has_bug_id else None)
+                if entry is not None:
+                    return entry["source_code"]
+        raise KeyError(class_key)
+
+def dataset_signature(iterations):
+    """Changes whenever a dataset part or the iteration count does, to know when to seed the ledger again."""
+    digest = hashlib.sha256(str(iterations).encode())
+    for dataset_name in DATASETS:
+        for dataset_path in dataset_files(dataset_name):
+            st = os.stat(dataset_path)
+            digest.update(f"{dataset_path}\0{st.st_size}\0{st.st_mtime_ns}\n".encode())
+    return digest.hexdigest()
+
+def generation_jobs(provider_name, sources, iterations):
+    """(dataset, project, class, bug_id, iteration, output path, skip) of every test suite of a provider."""
+    for dataset_name, project_name, class_name, bug_id, skip in sources.classes():
+        for iteration_num in range(1, iterations + 1):
+            output_dir = Path(OUTPUT_BASE_DIR) / provider_name / dataset_name / project_name / class_name / bug_id / f"Iteration_{iteration_num}"
+            filename = f"{project_name}-{bug_id}-{class_name}-iter-{iteration_num}.txt"
+            yield dataset_name, project_name, class_name, bug_id, iteration_num, str(output_dir / filename), skip
+
+def seed_ledger(ledger, provider_name, sources, iterations):
+    signature = dataset_signature(iterations)
+    if ledger.is_seeded(provider_name, signature):
+        return
+    new_jobs = ledger.seed(provider_name, generation_jobs(provider_name, sources, iterations), signature)
+    for _, _, project_name, class_name, bug_id, iteration_num, _, state, _ in new_jobs:
+        if state == "skipped" and iteration_num == 1:
+            log_error(f"{project_name}-{bug_id}-{class_name}", "Empty source code. Skipping generation.")
+
+def group_by_class(jobs, max_samples):
+    """Consecutive jobs of the same class, at most `max_samples` to a group."""
+    groups = []
+    for job in jobs:
+        if groups and len(groups[-1]) < max_samples and groups[-1][0][:4] == job[:4]:
+            groups[-1].append(job)
+        else:
+            groups.append([job])
+    return groups
+
+async def generation_worker(provider, ledger, sources, queue):
+    """Generate the iterations of one class per request: n samples at once where the provider allows it."""
+    while True:
+        group = await queue.get()
+        if group is None:
+            return
+        class_key = group[0][:4]
+        dataset_name, project_name, class_name, bug_id = class_key
+        start = time.monotonic()
+        try:
+            prompt = generate_test_prompt(class_name, sources[class_key])
+            generated_tests, used = await provider.complete(prompt, n=len(group), key=class_key)
+        except asyncio.CancelledError:
+            ledger.release(provider.name, group)
+            raise
+        except Exception as e:
+            for job in group:
+                log_error(os.path.basename(job[5]), f"Generation error: {e}")
+                ledger.fail(provider.name, job, str(e), time.monotonic() - start)
+            continue
+
+        latency = time.monotonic() - start
+        tokens = used // len(group) if used is not None else None
+        for i, job in enumerate(group):
+            filename = os.path.basename(job[5])
+            generated_test_code = generated_tests[i] if i < len(generated_tests) else ""
+            if generated_test_code:
+                save_generated_test(job[5], generated_test_code)
+                ledger.complete(provider.name, job, tokens, latency)
+                print(f"[{provider.name}] Generated {filename}")
+            else:
+                log_error(filename, "Empty response from LLM.")
+                ledger.fail(provider.name, job, "Empty response from LLM.", latency)
+
+async def generate(provider, ledger, sources, args):
+    """Feed the jobs the provider claims from the ledger to --in-flight workers sharing its quota."""
+    owner = f"{socket.gethostname()}:{os.getpid()}"
+    samples = max(1, min(provider.max_samples, args.samples))
+    queue = asyncio.Queue(maxsize=args.in_flight)
+    workers = [asyncio.create_task(generation_worker(provider, ledger, sources, queue)) for _ in range(args.in_flight)]
+    claimed = []
+    try:
+        while True:
+            claimed = group_by_class(
+                ledger.claim(provider.name, args.in_flight * samples, owner, args.lease, args.max_attempts), samples)
+            if not claimed:
+                break
+            while claimed:
+                await queue.put(claimed[0])
+                claimed.pop(0)
+        for _ in workers:
+            await queue.put(None)
+        await asyncio.gather(*workers)
+    finally:
+        # Claimed jobs not handed to a worker yet go back to pending for the next run
+        while not queue.empty():
+            group = queue.get_nowait()
+            if group is not None:
+                claimed.append(group)
+        ledger.release(provider.name, [job for group in claimed for job in group])
+        provider.close()
+
+    summary = ledger.summary(provider.name)
+    counts = ", ".join(f"{count} {state}" for state, (count, _, _) in sorted(summary.items()))
+    tokens = sum(tokens for _, tokens, _ in summary.values())
+    print(f"[{provider.name}] Test generation completed: {counts}; {tokens} tokens used.")
+
+async def generate_all(args, ledger):
+    sources = DatasetSources()
+    limits = {"rpm": args.rpm, "tpm": args.tpm, "retries": args.retries}
+    key_envs = dict(option.split("=", 1) for option in args.api_key_env)
+    providers = []
+    for name in args.provider:
+        if name == "STUB":
+            providers.append(StubProvider(latency=args.stub_latency, error_rate=args.stub_error_rate, **limits))
+        else:
+            providers.append(PROVIDERS[name](base_url=args.base_url, api_key_env=key_envs.get(name), **limits))
+
+    for provider in providers:
+        seed_ledger(ledger, provider.name, sources, args.iterations)
+        if args.verify:
+            reset = ledger.reset_missing(provider.name)
+            print(f"[{provider.name}] {reset} finished jobs lost their output and will be generated again")
+    await asyncio.gather(*(generate(provider, ledger, sources, args) for provider in providers))
+
+def main():
+    arg_parser = argparse.ArgumentParser(description="Generate LLM test suites for the Defects4J and SF110 datasets")
+    arg_parser.add_argument("--provider", nargs="+", choices=sorted(PROVIDERS), default=["GPT", "MISTRAL"],
+                            help="providers to generate with, concurrently (default: GPT MISTRAL)")
+    arg_parser.add_argument("--in-flight", type=int, default=16,
+                            help="concurrent requests per provider (default: %(default)s)")
+    arg_parser.add_argument("--rpm", type=int, help="requests per minute per provider (default: per-provider quota)")
+    arg_parser.add_argument("--tpm", type=int, help="tokens per minute per provider (default: per-provider quota)")
+    arg_parser.add_argument("--retries", type=int, default=MAX_RETRIES, help="attempts per request (default: %(default)s)")
+    arg_parser.add_argument("--iterations", type=int, default=NUM_ITERATIONS,
+                            help="test suites per class (default: %(default)s)")
+    arg_parser.add_argument("--ledger", default=LEDGER_PATH, help="job ledger database (default: %(default)s)")
+    arg_parser.add_argument("--max-attempts", type=int, default=MAX_JOB_ATTEMPTS,
+                            help="runs of a job before it is left failed (default: %(default)s)")
+    arg_parser.add_argument("--lease", type=float, default=LEASE_SECONDS,
+                            help="seconds a claimed job stays reserved for this run (default: %(default)s)")
+    arg_parser.add_argument("--verify", action="store_true",
+                            help="check that finished jobs still have their output, requeueing those that do not")
+    arg_parser.add_argument("--samples", type=int, default=NUM_ITERATIONS,
+                            help="iterations of a class asked for in one request where the provider supports n"
+                                 " (default: %(default)s, 1 to send one request per iteration)")
+    arg_parser.add_argument("--base-url", help="chat completions API root, e.g. a local mock server")
+    arg_parser.add_argument("--api-key-env", action="append", default=[], metavar="PROVIDER=VAR",
+                            help="environment variable holding a provider's API key, e.g. GPT=OPENAI_API_KEY-2"
+                                 " (default: OPENAI_API_KEY-1, MISTRAL_API_KEY-1)")
+    arg_parser.add_argument("--stub-latency", type=float, default=0.05, help="seconds per STUB completion")
+    arg_parser.add_argument("--stub-error-rate", type=float, default=0.0, help="fraction of STUB requests failing")
+    args = arg_parser.parse_args()
+    for option in args.api_key_env:
+        if option.split("=", 1)[0] not in PROVIDERS or "=" not in option:
+            arg_parser.error(f"--api-key-env expects PROVIDER=VAR with PROVIDER one of {', '.join(sorted(PROVIDERS))}")
+
+    ledger = JobLedger(args.ledger)
+    try:
+        asyncio.run(generate_all(args, ledger))
+    except KeyboardInterrupt:
+        print("Interrupted; finished jobs are kept in the ledger and the rest resume on the next run.")
+        return
+    finally:
+        ledger.close()
+    print("Test generation completed for all datasets.")
+
+if __name__ == "__main__":
+    main()
@@ -0,0 +1,124 @@
+"""Local stand-in for the chat completions API, to exercise llm_generation.py offline.
+
+Every POST .../chat/completions is answered after --latency seconds with a small
+JUnit test suite in a ``` block, `n` times when the request asks for n samples. Beyond --rpm requests in the last minute the
+server answers 429 with a Retry-After header, and --error-rate of the requests
+fail with a 503, so rate limiting and backoff can be observed without a quota.
+"""
+import json
+import time
+import random
+import argparse
+import threading
+from collections import deque
+from http.server import BaseHTTPRequestHandler, ThreadingHTTPServer
+
+RESPONSE_TEMPLATE = """Here is the test suite:
+```java
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class {name}Test {{
+    @Test
+    public void testCreate() {{
+        assertNotNull(new {name}());
+    }}
+}}
+```"""
+
+def mock_completion(prompt):
+    """Minimal JUnit suite for the class named in a generation prompt."""
+    marker = "class named "
+    name = prompt.split(marker, 1)[1].split(".", 1)[0].strip() if marker in prompt else "Mock"
+    return RESPONSE_TEMPLATE.format(name=name)
+
+class MockState:
+    def __init__(self, latency, rpm, error_rate):
+        self.latency = latency
+        self.rpm = rpm
+        self.error_rate = error_rate
+        self.window = deque()
+        self.lock = threading.Lock()
+        self.counts = {"ok": 0, "limited": 0, "failed": 0}
+
+    def admit(self):
+        """Seconds until a slot frees up when over --rpm, otherwise None (and the request is counted)."""
+        now = time.monotonic()
+        with self.lock:
+            while self.window and now - self.window[0] >= 60:
+                self.window.popleft()
+            if self.rpm and len(self.window) >= self.rpm:
+                return 60 - (now - self.window[0])
+            self.window.append(now)
+            return None
+
+class MockHandler(BaseHTTPRequestHandler):
+    protocol_version = "HTTP/1.1"
+
+    def log_message(self, format, *args):
+        pass
+
+    def _send(self, status, payload, headers=()):
+        body = json.dumps(payload).encode("utf-8")
+        self.send_response(status)
+        self.send_header("Content-Type", "application/json")
+        self.send_header("Content-Length", str(len(body)))
+        for name, value in headers:
+            self.send_header(name, value)
+        self.end_headers()
+        self.wfile.write(body)
+
+    def do_POST(self):
+        state = self.server.state
+        request = json.loads(self.rfile.read(int(self.headers.get("Content-Length", 0))) or b"{}")
+        if not self.path.endswith("/chat/completions"):
+            self._send(404, {"error": {"message": f"unknown path {self.path}"}})
+            return
+
+        wait = state.admit()
+        if wait is not None:
+            state.counts["limited"] += 1
+            self._send(429, {"error": {"message": "rate limit reached"}}, [("Retry-After", f"{wait:.2f}")])
+            return
+        time.sleep(state.latency)
+        if random.random() < state.error_rate:
+            state.counts["failed"] += 1
+            self._send(503, {"error": {"message": "service unavailable"}})
+            return
+
+        prompt = request["messages"][0]["content"]
+        content = mock_completion(prompt)
+        n = int(request.get("n", 1))
+        prompt_tokens, completion_tokens = len(prompt) // 4, n * (len(content) // 4)
+        state.counts["ok"] += 1
+        self._send(200, {
+            "id": f"mock-{state.counts['ok']}",
+            "object": "chat.completion",
+            "model": request.get("model"),
+            "choices": [{"index": i, "message": {"role": "assistant", "content": content}, "finish_reason": "stop"}
+                        for i in range(n)],
+            "usage": {"prompt_tokens": prompt_tokens, "completion_tokens": completion_tokens,
+                      "total_tokens": prompt_tokens + completion_tokens},
+        })
+
+def main():
+    arg_parser = argparse.ArgumentParser(description="Mock chat completions server")
+    arg_parser.add_argument("--port", type=int, default=8000)
+    arg_parser.add_argument("--latency", type=float, default=2.0, help="seconds per completion (default: %(default)s)")
+    arg_parser.add_argument("--rpm", type=int, default=0, help="requests per minute before 429s, 0 for unlimited")
+    arg_parser.add_argument("--error-rate", type=float, default=0.0, help="fraction of requests failing with 503")
+    args = arg_parser.parse_args()
+
+    server = ThreadingHTTPServer(("127.0.0.1", args.port), MockHandler)
+    server.daemon_threads = True
+    server.state = MockState(args.latency, args.rpm, args.error_rate)
+    print(f"Mock chat completions API on http://127.0.0.1:{args.port}/v1")
+    try:
+        server.serve_forever()
+    except KeyboardInterrupt:
+        pass
+    finally:
+        print(f"Served: {server.state.counts}")
+
+if __name__ == "__main__":
+    main()
@@ -1,170 +1,46 @@
 import os
+import sys
 import logging
 import csv
+import heapq
 import statistics
-from concurrent.futures import ThreadPoolExecutor, as_completed
-from tree_sitter import Language, Parser
-import tree_sitter_java as tsjava
+import argparse
+from concurrent.futures import ProcessPoolExecutor
 
 # Initialize logging
 logging.basicConfig(level=logging.INFO, filename='cognitive_analysis_llm.log',
                     format='%(asctime)s - %(levelname)s - %(message)s',
                     filemode='a')
 
-# Tree-sitter parser setup
-JAVA_LANGUAGE = Language(tsjava.language())
-parser = Parser(JAVA_LANGUAGE)
-
-
-# Cognitive complexity calculator
-class CognitiveComplexityCalculator:
-    def __init__(self, code):
-        self.code = code.encode("utf-8")
-        self.complexity = 0
-        self.nest_level = 0
-        self.parser = parser
-
-    def compute_complexity(self):
-        tree = self.parser.parse(self.code)
-        self._analyze_node(tree.root_node)
-        return self.complexity
-
-    def _analyze_node(self, node):
-        for child in node.children:
-            child_text = self.code[child.start_byte:child.end_byte].decode("utf-8", errors="ignore")
-
-            if child.type in ["if_statement", "for_statement", "while_statement", "switch_statement"]:
-                self.complexity += 1 + self.nest_level
-                self.nest_level += 1
-                self._analyze_node(child)
-                self.nest_level -= 1
-            elif child.type == "annotation":
-                if "@Test" in child_text:
-                    self.complexity += 1
-                elif "@ParameterizedTest" in child_text:
-                    self.complexity += 2
-            elif child.type == "expression_statement":
-                if "assert" in child_text:
-                    self.complexity += 1
-                elif "throw" in child_text or "catch" in child_text:
-                    self.complexity += 1
-            elif child.type == "method_invocation":
-                self.complexity += child_text.count(".")
-            else:
-                self._analyze_node(child)
-
-class CognitiveComplexityCalculatorTestAware:
-    def __init__(self, code, method_name=None):
-        self.code = code.encode("utf-8")
-        self.method_name = method_name
-        self.complexity = 0
-        self.nest_level = 0
-        self.parser = parser
-
-
-    def compute_complexity(self):
-        tree = self.parser.parse(self.code)
-        root_node = tree.root_node
-        self._analyze_node(root_node)
-        return self.complexity
-
-    def _analyze_node(self, node):
-        for child in node.children:
-            kind = child.type
-            text = self.code[child.start_byte:child.end_byte].decode("utf-8")
-
-            # Base: Sonar-style control flow + nesting
-            if kind in ["if_statement", "for_statement", "while_statement", "do_statement", "switch_statement", "catch_clause"]:
-                self._increment("control", child)
-            elif kind == "binary_expression" and ("&&" in text or "||" in text):
-                self.complexity += 1
-            elif kind == "labeled_statement":
-                if any(k in text for k in ["break", "continue", "goto"]):
-                    self.complexity += 1
-            elif kind == "method_invocation":
-                if self._is_recursive_call(text):
-                    self.complexity += 1
-                if any(x in text for x in ["mock(", "when(", "verify("]):
-                    self.complexity += 1  # mocking complexity
-                if "assert" in text or "fail(" in text:
-                    self.complexity += 1  # assertion logic
-            elif kind == "annotation":
-                if "@Test" in text:
-                    self.complexity += 1
-                elif "@ParameterizedTest" in text:
-                    self.complexity += 2
-                elif "@BeforeEach" in text or "@AfterEach" in text:
-                    self.complexity += 1
-            # Continue recursion
-            self._analyze_node(child)
-
-    def _increment(self, kind, node):
-        self.complexity += 1 + self.nest_level
-        self.nest_level += 1
-        self._analyze_node(node)
-        self.nest_level -= 1
-
-    def _is_recursive_call(self, text):
-        return self.method_name and self.method_name in text
-
-
-class CognitiveComplexityCalculatorSonar:
-    def __init__(self, code, method_name=None):
-        self.code = code.encode("utf-8")
-        self.complexity = 0
-        self.nest_level = 0
-        self.parser = parser
-        self.method_name = method_name
-
-    def compute_complexity(self):
-        tree = self.parser.parse(self.code)
-        root_node = tree.root_node
-        self._analyze_node(root_node)
-        return self.complexity
-
-    def _analyze_node(self, node):
-        for child in node.children:
-            kind = child.type
-            text = self.code[child.start_byte:child.end_byte].decode("utf-8")
-
-            # Core control flow constructs
-            if kind in ["if_statement", "for_statement", "while_statement", "do_statement", "switch_statement", "catch_clause"]:
-                self._increment("control", child)
-            elif kind == "binary_expression" and ("&&" in text or "||" in text):
-                self.complexity += 1  # sequence of logical operators
-            elif kind == "labeled_statement":
-                if "break" in text or "continue" in text or "goto" in text:
-                    self.complexity += 1  # labeled jumps
-            elif kind == "method_invocation":
-                if self._is_recursive_call(text):
-                    self.complexity += 1  # recursion
-            # Recurse deeper
-            self._analyze_node(child)
-
-    def _increment(self, kind, node):
-        # +1 base increment + nesting penalty
-        self.complexity += 1 + self.nest_level
-        self.nest_level += 1
-        self._analyze_node(node)
-        self.nest_level -= 1
-
-    def _is_recursive_call(self, invocation_text):
-        if not self.method_name:
-            return False
-        # Basic check: does the method call contain the method name
-        return self.method_name in invocation_text
-
-
-
-# Analyze a single file
-def analyze_file(java_file_path):
+# Shared single-pass engine and result cache (Approach/)
+SCRIPT_DIR = os.path.dirname(os.path.abspath(__file__))
+sys.path.insert(0, os.path.join(SCRIPT_DIR, "..", "..", "..", "Approach"))
+from complexity_engine import compute_metrics, iter_method_metrics, ENGINE_VERSION
+from result_cache import ResultCache, DEFAULT_PATH
+from corpus_archive import CorpusArchive
+
+# Metrics: "sonar", "testaware" (CCTR) or "legacy" (dot-counting)
+METRICS = ("sonar", "testaware")
+METRIC_LABELS = {"sonar": "Sonar", "testaware": "TestAware", "legacy": "Legacy"}
+CHUNK_SIZE = 32
+# Per-method scores are cached under the method's own content key; cached scores are
+# reused until ENGINE_VERSION (the engine source or the tree-sitter packages) changes
+METHOD_SCORES = "method_scores"
+METHOD_FIELDS = ["Dataset", "Model", "Project", "Class", "Bug-ID", "Iteration", "File",
+                 "Method", "Kind", "Start Line", "End Line", "Test"]
+
+
+# Source of a test file; `archive` reads it from a packed corpus
+def read_source(java_file_path, archive=None):
+    if archive is not None:
+        return read_archived(java_file_path, *archive)
+    with open(java_file_path, 'r', encoding='utf-8') as file:
+        return file.read()
+
+# Analyze a single file, all metrics in one parse
+def analyze_file(java_file_path, metrics=METRICS, archive=None):
     try:
-        with open(java_file_path, 'r', encoding='utf-8') as file:
-            code = file.read()
-        #calculator = CognitiveComplexityCalculator(code)
-        calculator = CognitiveComplexityCalculatorSonar(code)
-        #calculator = CognitiveComplexityCalculatorTestAware(code)
-        return calculator.compute_complexity()
+        return compute_metrics(read_source(java_file_path, archive), metrics)
     except Exception as e:
         logging.error(f"Failed to analyze {java_file_path}: {e}")
         return None
@@ -198,42 +74,151 @@ def extract_info(java_file_path):
         logging.error(f"Error extracting info from path {java_file_path}: {e}")
         return None
 
-# Analyze a dataset root path
-def analyze_dataset(dataset_path, detailed_data, aggregated_data):
-    for root, _, files in os.walk(dataset_path):
-        for file in files:
+# List the files of a dataset root path in a stable order
+def collect_java_files(dataset_path):
+    java_files = []
+    for root, dirs, files in os.walk(dataset_path):
+        dirs.sort()
+        for file in sorted(files):
             if file.endswith(".java") and "scaffolding" not in file:
-                java_path = os.path.join(root, file)
-                info = extract_info(java_path)
-                if not info:
-                    continue
-                dataset, model, project, clazz, bug_id, iteration, filename = info
-                complexity = analyze_file(java_path)
-                if complexity is None:
-                    continue
-
-                key = (dataset, model, project)
-                detailed_data.append({
-                    "Dataset": dataset,
-                    "Model": model,
-                    "Project": project,
-                    "Class": clazz,
-                    "Bug-ID": bug_id,
-                    "Iteration": iteration,
-                    "File": filename,
-                    "Cognitive Complexity": complexity
-                })
-
-                if key not in aggregated_data:
-                    aggregated_data[key] = {
-                        "Total Complexity": 0,
-                        "Total Classes": 0,
-                        "Complexity Values": []
-                    }
-
-                aggregated_data[key]["Total Complexity"] += complexity
-                aggregated_data[key]["Total Classes"] += 1
-                aggregated_data[key]["Complexity Values"].append(complexity)
+                java_files.append(os.path.join(root, file))
+    return java_files
+
+# Packed corpus: (archive path, base path) of the tree it stands for; one mapping per process
+_archives = {}
+
+def read_archived(java_file_path, archive_path, base_path):
+    archive = _archives.get(archive_path)
+    if archive is None:
+        archive = _archives[archive_path] = CorpusArchive(archive_path)
+    entry = archive.find(os.path.relpath(java_file_path, base_path))
+    if entry is None:
+        raise FileNotFoundError(f"{java_file_path} not in {archive_path}")
+    return archive.text(entry)
+
+# List the test sources of a dataset from a packed corpus, in the order collect_java_files gives;
+# returns the paths they would have under base_path and their content hashes
+def collect_archived_files(archive, base_path, dataset_name):
+    java_files, digests = [], {}
+    for entry in archive.select(dataset_name + "/", kind="java"):
+        if "scaffolding" in os.path.basename(entry.path):
+            continue
+        path = os.path.join(base_path, *entry.path.split("/"))
+        java_files.append(path)
+        digests[path] = archive.digest(entry)
+    return java_files, digests
+
+# Worker: scores of a chunk of files, {path: {metric: score}}; files outside the
+# datasets' layout or failing to parse are left out
+def analyze_chunk(java_paths, metrics, archive=None):
+    computed = {}
+    for java_path in java_paths:
+        if not extract_info(java_path):
+            continue
+        scores = analyze_file(java_path, metrics, archive)
+        if scores is not None:
+            computed[java_path] = scores
+    return computed
+
+# Rows and per-project aggregates of every scored file, in file order
+def build_results(java_paths, metrics, scored):
+    detailed_data = {metric: [] for metric in metrics}
+    aggregated_data = {metric: {} for metric in metrics}
+    for java_path in java_paths:
+        info = extract_info(java_path)
+        scores = scored.get(java_path)
+        if not info or scores is None:
+            continue
+        dataset, model, project, clazz, bug_id, iteration, filename = info
+
+        key = (dataset, model, project)
+        for metric, complexity in scores.items():
+            detailed_data[metric].append({
+                "Dataset": dataset,
+                "Model": model,
+                "Project": project,
+                "Class": clazz,
+                "Bug-ID": bug_id,
+                "Iteration": iteration,
+                "File": filename,
+                "Cognitive Complexity": complexity
+            })
+
+            aggregate = aggregated_data[metric].setdefault(key, {
+                "Total Complexity": 0,
+                "Total Classes": 0,
+                "Complexity Values": []
+            })
+            aggregate["Total Complexity"] += complexity
+            aggregate["Total Classes"] += 1
+            aggregate["Complexity Values"].append(complexity)
+    return detailed_data, aggregated_data
+
+# Worker (--per-method): method rows and file totals of a chunk of files. Methods whose content
+# key is in the result cache (or was scored earlier by this worker) are not walked again; the
+# scores computed here are returned for the main process to store
+_method_caches = {}
+
+def analyze_methods_chunk(java_paths, metrics, cache_path=None, archive=None):
+    cache = _method_caches.get(cache_path)
+    if cache is None:
+        cache = _method_caches[cache_path] = ResultCache(cache_path)
+    known, rows, totals, computed = {}, [], {}, {}
+
+    def lookup(key):
+        if key not in known:
+            known[key] = cache.lookup(METHOD_SCORES, ENGINE_VERSION, [key]).get(key)
+        scores = known[key]
+        return scores if scores is not None and all(metric in scores for metric in metrics) else None
+
+    for java_path in java_paths:
+        info = extract_info(java_path)
+        if not info:
+            continue
+        dataset, model, project, clazz, bug_id, iteration, filename = info
+        try:
+            methods = list(iter_method_metrics(read_source(java_path, archive), metrics, known=lookup))
+        except Exception as e:
+            logging.error(f"Failed to analyze {java_path}: {e}")
+            continue
+        totals[java_path] = {metric: sum(method.scores[metric] for method in methods) for metric in metrics}
+        for method in methods:
+            if method.key is not None and not method.cached:
+                known[method.key] = computed[method.key] = method.scores
+            rows.append({
+                "Dataset": dataset, "Model": model, "Project": project, "Class": clazz, "Bug-ID": bug_id,
+                "Iteration": iteration, "File": filename,
+                "Method": method.name if method.name is not None else "<outside methods>",
+                "Kind": method.kind or "", "Start Line": method.start_line or "", "End Line": method.end_line or "",
+                "Test": method.is_test,
+                **{METRIC_LABELS[metric]: method.scores[metric] for metric in metrics}
+            })
+    return rows, totals, computed
+
+# Method rows of every file, written as the chunks complete; returns {path: {metric: file total}}
+# and the `top` highest-scoring methods of the first metric as hot spots
+def score_methods(java_files, metrics, output_path, cache, cache_path, archive, workers, top):
+    chunks = [java_files[i:i + CHUNK_SIZE] for i in range(0, len(java_files), CHUNK_SIZE)]
+    totals, hot_spots, counter = {}, [], 0
+    with open(output_path, 'w', newline='', encoding='utf-8') as f, \
+            ProcessPoolExecutor(max_workers=workers) as executor:
+        writer = csv.DictWriter(f, fieldnames=METHOD_FIELDS + [METRIC_LABELS[metric] for metric in metrics])
+        writer.writeheader()
+        for rows, chunk_totals, computed in executor.map(analyze_methods_chunk, chunks, [metrics] * len(chunks),
+                                                          [cache_path] * len(chunks), [archive] * len(chunks)):
+            writer.writerows(rows)
+            totals.update(chunk_totals)
+            cache.store(METHOD_SCORES, ENGINE_VERSION, computed)
+            for row in rows:
+                if not row["Kind"]:
+                    continue  # code outside methods is not a hot spot
+                counter += 1
+                entry = (row[METRIC_LABELS[metrics[0]]], -counter, row)
+                if len(hot_spots) < top:
+                    heapq.heappush(hot_spots, entry)
+                elif top:
+                    heapq.heappushpop(hot_spots, entry)
+    return totals, [row for _, _, row in sorted(hot_spots, reverse=True)]
 
 # Save detailed results
 def save_detailed_csv(detailed_data, output_path):
@@ -263,32 +248,93 @@ def save_summary_csv(aggregated_data, output_path):
                 "Total": stats["Total Complexity"]
             })
 
-# Paths
-base_path = "Preprocessings"
-output_dir = "."
-
-detailed_output = os.path.join(output_dir, "llm-cognitive_analysis_detailed-Sonar.csv")
-summary_output = os.path.join(output_dir, "llm-cognitive_analysis_summary-Sonar.csv")
-
-
-
-
-# Main analysis
-detailed_data = []
-aggregated_data = {}
-
-with ThreadPoolExecutor() as executor:
-    futures = []
+def main():
+    arg_parser = argparse.ArgumentParser(description="Sonar / CCTR cognitive complexity of the compilable LLM tests")
+    arg_parser.add_argument("--workers", type=int, default=os.cpu_count(),
+                            help="worker processes (default: all cores)")
+    arg_parser.add_argument("--metrics", nargs="+", choices=sorted(METRIC_LABELS), default=list(METRICS),
+                            help="metrics computed in the same pass, one CSV pair each")
+    arg_parser.add_argument("--cache", default=DEFAULT_PATH,
+                            help="result cache database shared by the metric stages (default: %(default)s)")
+    arg_parser.add_argument("--no-cache", action="store_true", help="recompute every file")
+    arg_parser.add_argument("--per-method", action="store_true",
+                            help="score every method separately, streaming llm-cognitive_analysis_methods.csv; "
+                                 "file totals are the sums and unchanged methods are served from the cache")
+    arg_parser.add_argument("--top", type=int, default=10,
+                            help="with --per-method, print the N highest-scoring methods (default: %(default)s)")
+    arg_parser.add_argument("--archive", help="read the Compilable-OK trees from a corpus archive "
+                            "(Approach/corpus_archive.py pack Preprocessings ARCHIVE) instead of walking them")
+    args = arg_parser.parse_args()
+
+    # Paths
+    base_path = "Preprocessings"
+    output_dir = "."
+
+    java_files, digests = [], {}
     for dataset_name in ["Defects4J-Compilable-OK", "SF110-Compilable-OK"]:
-        dataset_path = os.path.join(base_path, dataset_name)
-        futures.append(executor.submit(analyze_dataset, dataset_path, detailed_data, aggregated_data))
-
-    for future in as_completed(futures):
-        future.result()
-
-# Save output
-save_detailed_csv(detailed_data, detailed_output)
-save_summary_csv(aggregated_data, summary_output)
-
-
-
+        if args.archive:
+            with CorpusArchive(args.archive) as archive:
+                dataset_files, dataset_digests = collect_archived_files(archive, base_path, dataset_name)
+            java_files.extend(dataset_files)
+            digests.update(dataset_digests)
+        else:
+            java_files.extend(collect_java_files(os.path.join(base_path, dataset_name)))
+    archive = (args.archive, base_path) if args.archive else None
+
+    cache_path = None if args.no_cache else args.cache
+    method_totals = {}
+    if args.per_method:
+        with ResultCache(cache_path) as cache:
+            method_totals, hot_spots = score_methods(java_files, args.metrics,
+                                              os.path.join(output_dir, "llm-cognitive_analysis_methods.csv"),
+                                              cache, cache_path, archive, args.workers, args.top)
+        label = METRIC_LABELS[args.metrics[0]]
+        for row in hot_spots:
+            print(f"{row[label]:>5}  {row['Project']}/{row['Class']} {row['Iteration']} "
+                  f"{row['Method']} (lines {row['Start Line']}-{row['End Line']})")
+
+    with ResultCache(cache_path) as cache:
+        # Archived files are hashed at pack time, not read again to look them up
+        cache.add_digests(digests)
+        # Files with a cached score for every metric are not parsed again
+        hits = {metric: cache.get(metric, ENGINE_VERSION, java_files) for metric in args.metrics}
+        cached = {path: {metric: hits[metric][path] for metric in args.metrics}
+                  for path in java_files if all(path in hits[metric] for metric in args.metrics)}
+        # With --per-method the file scores are the sums of the method scores
+        for metric in args.metrics:
+            cache.put(metric, ENGINE_VERSION, {path: totals[metric] for path, totals in method_totals.items()
+                                               if path not in cached})
+        cached.update(method_totals)
+        # Byte-identical iterations are parsed once, the copies reuse the scores
+        missing = [path for path in java_files if path not in cached]
+        repeated = cache.duplicates(missing)
+        to_score = [path for path in missing if path not in repeated]
+        logging.info(f"Result cache: {len(cached)}/{len(java_files)} files already scored, "
+                     f"{len(to_score)} to score, {len(repeated)} identical copies")
+
+        # Main analysis: file-level work queue over a process pool
+        chunks = [to_score[i:i + CHUNK_SIZE] for i in range(0, len(to_score), CHUNK_SIZE)]
+        with ProcessPoolExecutor(max_workers=args.workers) as executor:
+            for computed in executor.map(analyze_chunk, chunks, [args.metrics] * len(chunks),
+                                         [archive] * len(chunks)):
+                cached.update(computed)
+                for metric in args.metrics:
+                    cache.put(metric, ENGINE_VERSION, {path: scores[metric] for path, scores in computed.items()})
+        for path, original in repeated.items():
+            if original in cached:
+                cached[path] = cached[original]
+
+    # Rows and aggregates in file order, every score known by now
+    detailed_data, aggregated_data = build_results(java_files, args.metrics, cached)
+
+    # Save output
+    for metric in args.metrics:
+        label = METRIC_LABELS[metric]
+        if not detailed_data[metric]:
+            logging.warning(f"No {label} results to save.")
+            continue
+        save_detailed_csv(detailed_data[metric], os.path.join(output_dir, f"llm-cognitive_analysis_detailed-{label}.csv"))
+        save_summary_csv(aggregated_data[metric], os.path.join(output_dir, f"llm-cognitive_analysis_summary-{label}.csv"))
+
+if __name__ == "__main__":
+    main()
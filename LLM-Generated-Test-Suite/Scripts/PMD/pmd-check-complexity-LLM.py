@@ -1,6 +1,13 @@
 import os
+import re
+import sys
+import copy
+import shutil
 import subprocess
 import logging
+import argparse
+import tempfile
+import xml.etree.ElementTree as ET
 from concurrent.futures import ThreadPoolExecutor, as_completed
 
 # Logging setup
@@ -8,72 +15,314 @@ logging.basicConfig(level=logging.INFO, filename='pmd_llm_analysis.log',
                     format='%(asctime)s - %(levelname)s - %(message)s',
                     filemode='a')
 
+REPORT_NS = "http://pmd.sourceforge.net/report/2.0.0"
+RULESET_NS = "http://pmd.sourceforge.net/ruleset/2.0.0"
+COMPLEXITY_PATTERN = re.compile(r"cognitive complexity of (\d+)")
+THRESHOLD_PATTERN = re.compile(r"current threshold is (\d+)")
+ET.register_namespace("", REPORT_NS)
+
+# PMD installation path; its name carries the PMD version
+PMD_BIN_PATH = "pmd-bin-7.0.0-rc4/bin"
+
+# Shared result cache (Approach/result_cache.py)
+SCRIPT_DIR = os.path.dirname(os.path.abspath(__file__))
+sys.path.insert(0, os.path.join(SCRIPT_DIR, "..", "..", "..", "Approach"))
+from result_cache import ResultCache, DEFAULT_PATH, version_key, install_version
+
 def run_pmd(java_file, ruleset_path, report_path):
-    """Execute PMD on a Java file with a given ruleset."""
+    """Execute PMD on a Java file with a given ruleset; True when it wrote a fresh report."""
     command = [
         "pmd", "check", "-d", java_file, "-R", ruleset_path, "-f", "xml", "-r", report_path
     ]
+    # Never read back a report left over from an earlier run
+    if os.path.exists(report_path):
+        os.remove(report_path)
     try:
-        subprocess.run(command, check=True)
-        logging.info(f"PMD analysis completed: {report_path}")
-    except subprocess.CalledProcessError as e:
+        result = subprocess.run(command)
+    except OSError as e:
         logging.error(f"PMD failed for {java_file}: {e}")
+        return False
+    # PMD exits with 4 when violations were found, which is the expected outcome here
+    if result.returncode not in (0, 4) or not os.path.exists(report_path):
+        logging.error(f"PMD failed for {java_file} with exit code {result.returncode}")
+        return False
+    logging.info(f"PMD analysis completed: {report_path}")
+    return True
 
-def analyze_dataset(dataset_name, dataset_path, complexities, report_base_path):
-    """Recursively process all .java files for a dataset and run PMD analysis."""
+def report_layout(dataset_name, java_file_path, complexities, report_base_path):
+    """Map a Java file to its cyclomatic and per-level cognitive report paths, creating their directories."""
+    parts = java_file_path.split(os.path.sep)
+
+    try:
+        idx = parts.index(f"{dataset_name}-Compilable-OK")
+    except ValueError:
+        logging.warning(f"Skipping unrecognized path: {java_file_path}")
+        return None
+
+    try:
+        model = parts[idx + 1]
+        project = parts[idx + 2]
+        class_name = parts[idx + 3]
+        if dataset_name.lower() == "defects4j":
+            bug_id = parts[idx + 4]
+            iteration = parts[idx + 5]
+        else:
+            bug_id = None
+            iteration = parts[idx + 4]
+    except IndexError:
+        logging.warning(f"Invalid structure in path: {java_file_path}")
+        return None
+
+    class_iteration_id = f"{class_name}-{iteration.split('_')[-1]}"
+
+    output_path_parts = [report_base_path, dataset_name.lower(), model, project]
+    if bug_id:
+        output_path_parts.append(bug_id)
+    output_path_parts.append(class_iteration_id)
+
+    # Cyclomatic complexity
+    cyclomatic_dir = os.path.join(*output_path_parts, "cyclomatic")
+    os.makedirs(cyclomatic_dir, exist_ok=True)
+    cyclomatic_filename = f"{dataset_name.lower()}_{model}_{project}_{bug_id + '_' if bug_id else ''}{class_name}_cyclomatic.xml"
+
+    # Cognitive complexities
+    cognitive_reports = {}
+    for level in complexities["cognitive"]:
+        cognitive_dir = os.path.join(*output_path_parts, "cognitive", level)
+        os.makedirs(cognitive_dir, exist_ok=True)
+        cognitive_filename = f"{dataset_name.lower()}_{model}_{project}_{bug_id + '_' if bug_id else ''}{class_name}_cognitive_{level}.xml"
+        cognitive_reports[level] = os.path.join(cognitive_dir, cognitive_filename)
+
+    return {
+        "cyclomatic": os.path.join(cyclomatic_dir, cyclomatic_filename),
+        "cognitive": cognitive_reports
+    }
+
+def list_java_files(dataset_path):
+    java_files = []
     for root, _, files in os.walk(dataset_path):
         for file in files:
             if file.endswith(".java") and "scaffolding" not in file:
-                java_file_path = os.path.join(root, file)
-                parts = java_file_path.split(os.path.sep)
-
-                try:
-                    idx = parts.index(f"{dataset_name}-Compilable-OK")
-                except ValueError:
-                    logging.warning(f"Skipping unrecognized path: {java_file_path}")
-                    continue
-
-                try:
-                    model = parts[idx + 1]
-                    project = parts[idx + 2]
-                    class_name = parts[idx + 3]
-                    if dataset_name.lower() == "defects4j":
-                        bug_id = parts[idx + 4]
-                        iteration = parts[idx + 5]
-                    else:
-                        bug_id = None
-                        iteration = parts[idx + 4]
-                except IndexError:
-                    logging.warning(f"Invalid structure in path: {java_file_path}")
-                    continue
-
-                class_file = os.path.splitext(os.path.basename(java_file_path))[0]
-                class_iteration_id = f"{class_name}-{iteration.split('_')[-1]}"
-
-                output_path_parts = [report_base_path, dataset_name.lower(), model, project]
-                if bug_id:
-                    output_path_parts.append(bug_id)
-                output_path_parts.append(class_iteration_id)
-
-                # Cyclomatic complexity
-                cyclomatic_dir = os.path.join(*output_path_parts, "cyclomatic")
-                os.makedirs(cyclomatic_dir, exist_ok=True)
-                cyclomatic_filename = f"{dataset_name.lower()}_{model}_{project}_{bug_id + '_' if bug_id else ''}{class_name}_cyclomatic.xml"
-                cyclomatic_report_path = os.path.join(cyclomatic_dir, cyclomatic_filename)
-                run_pmd(java_file_path, complexities["cyclomatic"], cyclomatic_report_path)
-
-                # Cognitive complexities
-                for level, ruleset_path in complexities["cognitive"].items():
-                    cognitive_dir = os.path.join(*output_path_parts, "cognitive", level)
-                    os.makedirs(cognitive_dir, exist_ok=True)
-                    cognitive_filename = f"{dataset_name.lower()}_{model}_{project}_{bug_id + '_' if bug_id else ''}{class_name}_cognitive_{level}.xml"
-                    cognitive_report_path = os.path.join(cognitive_dir, cognitive_filename)
-                    run_pmd(java_file_path, ruleset_path, cognitive_report_path)
+                java_files.append(os.path.join(root, file))
+    return java_files
+
+def analyze_dataset(dataset_name, dataset_path, complexities, report_base_path, cache=None):
+    """Recursively process all .java files for a dataset and run PMD analysis."""
+    cache = cache or ResultCache(None)
+    layouts = {}
+    for java_file_path in list_java_files(dataset_path):
+        layout = report_layout(dataset_name, java_file_path, complexities, report_base_path)
+        if layout:
+            layouts[java_file_path] = layout
+    cached = cache.get("pmd", complexities["version"], layouts)
+    # Byte-identical iterations are analyzed once, the copies reuse the entry
+    repeated = cache.duplicates([path for path in layouts if path not in cached])
+
+    with tempfile.TemporaryDirectory(prefix=f"pmd-{dataset_name.lower()}-") as work_dir:
+        cognitive_report = os.path.join(work_dir, "cognitive_all.xml")
+        cyclomatic_report = os.path.join(work_dir, "cyclomatic.xml")
+        for java_file_path, layout in layouts.items():
+            path = os.path.abspath(java_file_path)
+            if repeated.get(java_file_path) in cached:
+                cached[java_file_path] = cached[repeated[java_file_path]]
+            if java_file_path in cached:
+                write_layout(entry_from_cache(cached[java_file_path], java_file_path), layout, complexities["thresholds"])
+                continue
+            # Both reports go to fresh work files; a failed run leaves the reports and cache untouched.
+            # One reportLevel=1 pass; the threshold levels are derived from it
+            if not (run_pmd(java_file_path, complexities["cyclomatic"], cyclomatic_report)
+                    and run_pmd(java_file_path, complexities["cognitive_all"], cognitive_report)):
+                logging.error(f"No complexity reports produced for {java_file_path}")
+                continue
+            try:
+                cyclomatic = collect_report(cyclomatic_report, [path])[path]["cyclomatic"]
+                cognitive_layout = {"cognitive": layout["cognitive"]}
+                entry = split_report(cognitive_report, {path: cognitive_layout}, complexities["thresholds"])[path]
+            except ET.ParseError as e:
+                logging.error(f"Unreadable PMD report for {java_file_path}: {e}")
+                continue
+            shutil.copyfile(cyclomatic_report, layout["cyclomatic"])
+            entry["cyclomatic"] = cyclomatic
+            cached[java_file_path] = entry_to_cache(entry)
+            cache.put("pmd", complexities["version"], {java_file_path: cached[java_file_path]})
+
+# === Cognitive levels derived from a reportLevel=1 report ===
+def ruleset_report_level(ruleset_path):
+    """Read the CognitiveComplexity reportLevel configured in a ruleset file."""
+    root = ET.parse(ruleset_path).getroot()
+    for prop in root.iter(f"{{{RULESET_NS}}}property"):
+        if prop.get("name") == "reportLevel":
+            return int(prop.get("value"))
+    raise ValueError(f"No reportLevel in {ruleset_path}")
+
+def derive_cognitive_levels(violations, thresholds):
+    """
+    Rebuild the violations each level ruleset would have reported: PMD reports a method
+    when its cognitive complexity is >= reportLevel, and names that threshold in the message.
+    """
+    levels = {level: [] for level in thresholds}
+    for violation in violations:
+        match = COMPLEXITY_PATTERN.search(violation.text or "")
+        if not match:
+            logging.warning(f"Unparseable cognitive violation: {(violation.text or '').strip()}")
+            continue
+        value = int(match.group(1))
+        for level, threshold in thresholds.items():
+            if value >= threshold:
+                level_violation = copy.deepcopy(violation)
+                level_violation.text = THRESHOLD_PATTERN.sub(f"current threshold is {threshold}", violation.text)
+                levels[level].append(level_violation)
+    return levels
+
+# === Batch mode: one PMD process per dataset ===
+def run_pmd_batch(java_files, ruleset_paths, report_path, work_dir):
+    """Execute a single PMD process over a file list with several rulesets."""
+    file_list = os.path.join(work_dir, "file-list.txt")
+    with open(file_list, "w", encoding="utf-8") as f:
+        f.write("\n".join(java_files) + "\n")
+    command = [
+        "pmd", "check", "--file-list", file_list, "-R", ",".join(ruleset_paths), "-f", "xml", "-r", report_path
+    ]
+    result = subprocess.run(command)
+    # PMD exits with 4 when violations were found, which is the expected outcome here
+    if result.returncode not in (0, 4):
+        logging.error(f"Batch PMD failed with exit code {result.returncode}: {report_path}")
+        return False
+    logging.info(f"Batch PMD analysis completed: {report_path} ({len(java_files)} files)")
+    return True
+
+def write_report(root_attrib, file_name, elements, report_path):
+    """Write a single-file PMD XML report shaped like the ones `pmd check -d <file>` produces."""
+    root = ET.Element(f"{{{REPORT_NS}}}pmd", root_attrib)
+    violations = [e for e in elements if e.tag == f"{{{REPORT_NS}}}violation"]
+    if violations:
+        file_element = ET.SubElement(root, f"{{{REPORT_NS}}}file", {"name": file_name})
+        file_element.extend(violations)
+    root.extend(e for e in elements if e.tag != f"{{{REPORT_NS}}}violation")
+    ET.ElementTree(root).write(report_path, encoding="UTF-8", xml_declaration=True)
+
+def collect_report(report, paths):
+    """
+    Per-file content of a PMD report: {path: entry} where an entry holds the report
+    attributes, the file name as reported, and its cyclomatic / cognitive violations and errors.
+    """
+    root = ET.parse(report).getroot()
+    entries = {path: {"attrib": dict(root.attrib), "name": path, "cyclomatic": [], "cognitive": [], "errors": []}
+               for path in paths}
+
+    for file_element in root.findall(f"{{{REPORT_NS}}}file"):
+        name = file_element.get("name")
+        path = os.path.abspath(name)
+        if path not in entries:
+            logging.warning(f"Report names an unknown file: {name}")
+            continue
+        entries[path]["name"] = name
+        for violation in file_element.findall(f"{{{REPORT_NS}}}violation"):
+            rule = violation.get("rule")
+            if rule == "CyclomaticComplexity":
+                entries[path]["cyclomatic"].append(violation)
+            elif rule == "CognitiveComplexity":
+                entries[path]["cognitive"].append(violation)
+
+    for error in root.findall(f"{{{REPORT_NS}}}error"):
+        path = os.path.abspath(error.get("filename", ""))
+        if path in entries:
+            entries[path]["errors"].append(error)
+    return entries
+
+def write_layout(entry, layout, thresholds):
+    """Write one file's cyclomatic report (when the layout has one) and its cognitive report per level."""
+    if "cyclomatic" in layout:
+        write_report(entry["attrib"], entry["name"], entry["cyclomatic"] + entry["errors"], layout["cyclomatic"])
+    levels = derive_cognitive_levels(entry["cognitive"], thresholds)
+    for level, report_path in layout["cognitive"].items():
+        write_report(entry["attrib"], entry["name"], levels[level] + entry["errors"], report_path)
+
+def split_report(report, layouts, thresholds):
+    """
+    Split a PMD report back into the per-class layout: cyclomatic violations go to the
+    cyclomatic report (when the layout has one), cognitive ones to each level they reach.
+    Returns the per-file entries.
+    """
+    entries = collect_report(report, layouts)
+    for path, layout in layouts.items():
+        write_layout(entries[path], layout, thresholds)
+    return entries
+
+# === Cached report entries ===
+def element_to_cache(element):
+    """[XML, tail] of an element; the tail keeps the report's whitespace identical once restored."""
+    bare = copy.copy(element)
+    bare.tail = None
+    return [ET.tostring(bare, encoding="unicode"), element.tail]
+
+def element_from_cache(value):
+    xml, tail = value
+    element = ET.fromstring(xml)
+    element.tail = tail
+    return element
+
+def entry_to_cache(entry):
+    """JSON-friendly copy of a report entry."""
+    return {
+        "attrib": entry["attrib"],
+        **{kind: [element_to_cache(e) for e in entry[kind]] for kind in ("cyclomatic", "cognitive", "errors")}
+    }
+
+def entry_from_cache(value, path):
+    """Report entry for `path` from a cached one, possibly recorded for a copy of the file elsewhere."""
+    entry = {"attrib": value["attrib"], "name": path}
+    for kind in ("cyclomatic", "cognitive", "errors"):
+        entry[kind] = [element_from_cache(e) for e in value[kind]]
+    for error in entry["errors"]:
+        error.set("filename", path)
+    return entry
+
+def analyze_dataset_batch(dataset_name, dataset_path, complexities, report_base_path, cache=None):
+    """Run one PMD process over a dataset's uncached files and split its report per class and level."""
+    cache = cache or ResultCache(None)
+    layouts = {}
+    for java_file_path in list_java_files(dataset_path):
+        layout = report_layout(dataset_name, java_file_path, complexities, report_base_path)
+        if layout:
+            layouts[os.path.abspath(java_file_path)] = layout
+    if not layouts:
+        return
+
+    cached = cache.get("pmd", complexities["version"], layouts)
+    for path, value in cached.items():
+        write_layout(entry_from_cache(value, path), layouts[path], complexities["thresholds"])
+    missing = {path: layout for path, layout in layouts.items() if path not in cached}
+    # Byte-identical iterations are analyzed once, the copies reuse the entry
+    repeated = cache.duplicates(missing)
+    for path in repeated:
+        del missing[path]
+    logging.info(f"{dataset_name}: {len(cached)} files from the result cache, {len(missing)} to analyze, "
+                 f"{len(repeated)} identical copies")
+    if not missing:
+        return
+
+    ruleset_paths = [complexities["cyclomatic"], complexities["cognitive_all"]]
+    with tempfile.TemporaryDirectory(prefix=f"pmd-{dataset_name.lower()}-") as work_dir:
+        combined_report = os.path.join(work_dir, "combined.xml")
+        if run_pmd_batch(sorted(missing), ruleset_paths, combined_report, work_dir):
+            entries = split_report(combined_report, missing, complexities["thresholds"])
+            cache.put("pmd", complexities["version"],
+                      {path: entry_to_cache(entry) for path, entry in entries.items()})
+            for path, original in repeated.items():
+                write_layout(entry_from_cache(entry_to_cache(entries[original]), path), layouts[path],
+                             complexities["thresholds"])
 
 def main():
-    # PMD installation path
-    pmd_bin_path = "pmd-bin-7.0.0-rc4/bin"
-    os.environ["PATH"] += os.pathsep + pmd_bin_path
+    arg_parser = argparse.ArgumentParser(description="PMD cyclomatic / cognitive analysis of the compilable LLM tests")
+    arg_parser.add_argument("--batch", action="store_true",
+                            help="one PMD process per dataset (file list + combined rulesets) instead of one per file and ruleset")
+    arg_parser.add_argument("--cache", default=DEFAULT_PATH,
+                            help="result cache database shared by the metric stages (default: %(default)s)")
+    arg_parser.add_argument("--no-cache", action="store_true", help="rerun PMD on every file")
+    args = arg_parser.parse_args()
+
+    os.environ["PATH"] += os.pathsep + PMD_BIN_PATH
 
     # Datasets
     model_dataset_paths = {
@@ -90,17 +339,26 @@ def main():
             "high": os.path.join(base_ruleset_path, "cognitive_high_ruleset.xml"),
             "very_high": os.path.join(base_ruleset_path, "cognitive_very_high_ruleset.xml")
         },
+        "cognitive_all": os.path.join(base_ruleset_path, "cognitive_ruleset.xml"),
         "cyclomatic": os.path.join(base_ruleset_path, "cyclomatic_ruleset.xml")
     }
+    # The level rulesets only provide thresholds; PMD runs cognitive_ruleset.xml (reportLevel=1) once
+    complexities["thresholds"] = {
+        level: ruleset_report_level(path) for level, path in complexities["cognitive"].items()
+    }
+    # Cached violations depend on the PMD build and on the rulesets actually run
+    complexities["version"] = version_key(install_version(os.path.dirname(PMD_BIN_PATH)),
+                                          complexities["cyclomatic"], complexities["cognitive_all"])
 
     # Output base path
     report_base_path = "."
     os.makedirs(report_base_path, exist_ok=True)
 
     # Run analyses in parallel
-    with ThreadPoolExecutor() as executor:
+    analyze = analyze_dataset_batch if args.batch else analyze_dataset
+    with ResultCache(None if args.no_cache else args.cache) as cache, ThreadPoolExecutor() as executor:
         futures = [
-            executor.submit(analyze_dataset, name, path, complexities, report_base_path)
+            executor.submit(analyze, name, path, complexities, report_base_path, cache)
             for name, path in model_dataset_paths.items()
         ]
         for future in as_completed(futures):
@@ -0,0 +1,124 @@
+"""Client for the in-process javac service (compile_server/CompileServer.java).
+
+One JVM compiles every test directory through javax.tools with file managers
+cached per classpath, instead of a `javac` launch per directory. Requests are
+compiled concurrently by the server; a reader thread matches each result back
+to the future of its request by id. Given the cctr-core jar as plugin, the
+server also writes the CCTR metrics of every compiled class (CctrPlugin).
+"""
+import os
+import threading
+import subprocess
+from collections import namedtuple
+from concurrent.futures import Future
+
+SCRIPT_DIR = os.path.dirname(os.path.abspath(__file__))
+SERVER_SOURCE = os.path.join(SCRIPT_DIR, "compile_server", "CompileServer.java")
+
+Diagnostic = namedtuple("Diagnostic", ["kind", "source", "line", "column", "code", "message"])
+SERVER_EXITED = (False, [Diagnostic("ERROR", "", -1, -1, "", "compile server exited")])
+MALFORMED_JOB = (False, [Diagnostic("ERROR", "", -1, -1, "", "no files, or a tab or line break in a path")])
+
+def _unescape(value):
+    out, chars = [], iter(value)
+    for c in chars:
+        if c == "\\":
+            c = {"t": "\t", "n": "\n"}.get(next(chars, ""), "\\")
+        out.append(c)
+    return "".join(out)
+
+def format_diagnostic(diagnostic):
+    """First line of the diagnostic as the javac command prints it."""
+    kind = {"ERROR": "error", "WARNING": "warning", "MANDATORY_WARNING": "warning"}.get(diagnostic.kind)
+    message = diagnostic.message.splitlines()[0] if diagnostic.message else ""
+    if kind is None:
+        return f"Note: {message}"
+    if diagnostic.source:
+        return f"{diagnostic.source}:{diagnostic.line}: {kind}: {message}"
+    return f"{kind}: {message}"
+
+class CompileClient:
+    def __init__(self, threads=None, java="java", plugin=None):
+        """Start a server in the current directory, which relative classpaths and files refer to."""
+        cmd = [java, SERVER_SOURCE]
+        if threads:
+            cmd += ["--threads", str(threads)]
+        if plugin:
+            cmd += ["--plugin", plugin]
+        self.process = subprocess.Popen(
+            cmd, stdin=subprocess.PIPE, stdout=subprocess.PIPE,
+            text=True, encoding="utf-8", bufsize=1
+        )
+        self.pending = {}
+        self.server_exited = False
+        self.next_id = 0
+        self.lock = threading.Lock()
+        self.reader = threading.Thread(target=self._read_responses, daemon=True)
+        self.reader.start()
+
+    def __enter__(self):
+        return self
+
+    def __exit__(self, *exc):
+        self.close()
+
+    def close(self):
+        try:
+            self.process.stdin.close()
+        except OSError:
+            pass
+        self.process.wait()
+        self.reader.join()
+
+    def submit(self, classpath, java_files):
+        """Queue one directory; the future resolves to (success, [Diagnostic])."""
+        future = Future()
+        # A request is one tab-separated line: such a job could not be matched back to its future
+        if not java_files or any(c in field for field in [classpath, *java_files] for c in "\t\r\n"):
+            future.set_result(MALFORMED_JOB)
+            return future
+        with self.lock:
+            if self.server_exited:
+                future.set_result(SERVER_EXITED)
+                return future
+            job_id = self.next_id
+            self.next_id += 1
+            self.pending[job_id] = future
+            try:
+                self.process.stdin.write("\t".join([str(job_id), classpath, *java_files]) + "\n")
+                self.process.stdin.flush()
+            except OSError:
+                pass  # resolved as lost once the reader sees the server exit
+        return future
+
+    def compile_all(self, jobs):
+        """
+        Compile (classpath, java_files) jobs; return one (success, [Diagnostic])
+        per job, in job order.
+        """
+        futures = [self.submit(classpath, java_files) for classpath, java_files in jobs]
+        return [future.result() for future in futures]
+
+    def _read_responses(self):
+        stdout = self.process.stdout
+        while True:
+            header = stdout.readline()
+            if not header:
+                break
+            job_id, status, count = header.rstrip("\n").split("\t")
+            diagnostics = []
+            for _ in range(int(count)):
+                kind, source, line, column, code, message = stdout.readline().rstrip("\n").split("\t", 5)
+                diagnostics.append(Diagnostic(kind, _unescape(source), int(line), int(column),
+                                              _unescape(code), _unescape(message)))
+            if not job_id.isdigit():
+                continue
+            with self.lock:
+                future = self.pending.pop(int(job_id), None)
+            if future is not None:
+                future.set_result((status == "OK", diagnostics))
+        with self.lock:
+            self.server_exited = True
+            futures, self.pending = list(self.pending.values()), {}
+        for future in futures:
+            future.set_result(SERVER_EXITED)
@@ -0,0 +1,241 @@
+import com.sun.source.util.JavacTask;
+import com.sun.source.util.Plugin;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.ServiceLoader;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import javax.tools.Diagnostic;
+import javax.tools.DiagnosticCollector;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.StandardLocation;
+import javax.tools.ToolProvider;
+
+/**
+ * Long-lived javac service for the compilation stage of reorganize_and_compile.py.
+ *
+ * <p>Each request compiles one test directory in-process with the system
+ * {@link JavaCompiler}, writing class files next to the sources like a plain
+ * {@code javac -cp ...} call. File managers are cached per classpath, so the
+ * jars of a source tree and of JUnit, Hamcrest and slf4j are opened and
+ * indexed once rather than once per javac launch. Requests are compiled
+ * concurrently, so responses may come back out of order.
+ * <pre>
+ *   request:  id classpath file [file ...]
+ *   response: id OK|FAILED n, followed by n diagnostic lines
+ *             kind source line column code message
+ * </pre>
+ * Fields are tab separated; diagnostic fields escape backslash, tab and
+ * newline as {@code \\}, {@code \t} and {@code \n}.
+ *
+ * <p>With {@code --plugin cctr-core.jar} every compilation also runs the CCTR
+ * javac plugin, as {@code -Xplugin:CCTR} would, which writes the metrics of each
+ * compiled class next to its class file.
+ *
+ * <p>Usage (Java 11+): {@code java CompileServer.java [--threads n] [--plugin jar]},
+ * started from the directory relative classpath entries and files refer to.
+ */
+public final class CompileServer {
+
+    /** Distinct classpaths whose file managers are kept open. */
+    private static final int MAX_CLASSPATHS = 64;
+    private static final String PLUGIN_NAME = "CCTR";
+    /** Keeps {@code "a" + "b"} a binary expression in the trees the plugin measures. */
+    private static final List<String> PLUGIN_OPTIONS = List.of("-XDallowStringFolding=false");
+
+    private final JavaCompiler compiler;
+    private final PrintWriter out;
+    private final ClassLoader pluginLoader;
+    private final Map<String, Deque<StandardJavaFileManager>> fileManagers =
+            new LinkedHashMap<>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, Deque<StandardJavaFileManager>> eldest) {
+                    if (size() <= MAX_CLASSPATHS) {
+                        return false;
+                    }
+                    eldest.getValue().forEach(CompileServer::closeQuietly);
+                    return true;
+                }
+            };
+
+    CompileServer(JavaCompiler compiler, PrintWriter out, ClassLoader pluginLoader) {
+        this.compiler = compiler;
+        this.out = out;
+        this.pluginLoader = pluginLoader;
+    }
+
+    public static void main(String[] args) throws Exception {
+        int threads = Runtime.getRuntime().availableProcessors();
+        ClassLoader pluginLoader = null;
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            if ("--threads".equals(args[i])) {
+                threads = Integer.parseInt(args[i + 1]);
+            } else if ("--plugin".equals(args[i])) {
+                pluginLoader = new URLClassLoader(new URL[] {new File(args[i + 1]).toURI().toURL()},
+                        CompileServer.class.getClassLoader());
+            }
+        }
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        if (compiler == null) {
+            System.err.println("[CompileServer] no system Java compiler, a JDK is required");
+            System.exit(1);
+        }
+        PrintWriter stdout = new PrintWriter(new OutputStreamWriter(
+                new FileOutputStream(FileDescriptor.out), StandardCharsets.UTF_8));
+        new CompileServer(compiler, stdout, pluginLoader).serve(
+                new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8)), threads);
+    }
+
+    /** Compiles requests from stdin on a thread pool until stdin is closed. */
+    void serve(BufferedReader in, int threads) throws IOException, InterruptedException {
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        String line;
+        while ((line = in.readLine()) != null) {
+            if (line.isEmpty()) {
+                continue;
+            }
+            String request = line;
+            pool.execute(() -> respond(handle(request)));
+        }
+        pool.shutdown();
+        pool.awaitTermination(Long.MAX_VALUE, TimeUnit.DAYS);
+        synchronized (this) {
+            fileManagers.values().forEach(managers -> managers.forEach(CompileServer::closeQuietly));
+        }
+    }
+
+    private void respond(String response) {
+        synchronized (out) {
+            out.print(response);
+            out.flush();
+        }
+    }
+
+    String handle(String request) {
+        String[] fields = request.split("\t");
+        if (fields.length < 3) {
+            // Answered under its id all the same, so the client is never left waiting for it
+            return fields[0] + "\tFAILED\t1\n" + diagnosticLine("ERROR", "", -1, -1, "", "malformed request");
+        }
+        String id = fields[0];
+        String classpath = fields[1];
+        List<String> files = Arrays.asList(fields).subList(2, fields.length);
+        StandardJavaFileManager fileManager = null;
+        try {
+            fileManager = borrow(classpath);
+            DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<>();
+            Iterable<? extends JavaFileObject> units = fileManager.getJavaFileObjectsFromStrings(files);
+            JavaCompiler.CompilationTask task = compiler.getTask(new StringWriter(), fileManager, diagnostics,
+                    pluginLoader == null ? null : PLUGIN_OPTIONS, null, units);
+            if (pluginLoader != null) {
+                startPlugin((JavacTask) task);
+            }
+            boolean success = task.call();
+
+            StringBuilder response = new StringBuilder();
+            response.append(id).append(success ? "\tOK\t" : "\tFAILED\t")
+                    .append(diagnostics.getDiagnostics().size()).append('\n');
+            for (Diagnostic<? extends JavaFileObject> d : diagnostics.getDiagnostics()) {
+                response.append(diagnosticLine(d.getKind().name(),
+                        d.getSource() == null ? "" : d.getSource().getName(),
+                        d.getLineNumber(), d.getColumnNumber(),
+                        d.getCode() == null ? "" : d.getCode(), d.getMessage(Locale.ROOT)));
+            }
+            return response.toString();
+        } catch (Throwable t) {
+            return id + "\tFAILED\t1\n" + diagnosticLine("ERROR", "", -1, -1, "", String.valueOf(t));
+        } finally {
+            if (fileManager != null) {
+                release(classpath, fileManager);
+            }
+        }
+    }
+
+    /** A fresh instance of the plugin for one compilation, started as -Xplugin would start it. */
+    private void startPlugin(JavacTask task) {
+        for (Plugin plugin : ServiceLoader.load(Plugin.class, pluginLoader)) {
+            if (PLUGIN_NAME.equals(plugin.getName())) {
+                plugin.init(task);
+                return;
+            }
+        }
+        throw new IllegalStateException("no " + PLUGIN_NAME + " javac plugin on the --plugin jar");
+    }
+
+    /** An idle file manager already configured for the classpath, or a new one. */
+    private StandardJavaFileManager borrow(String classpath) throws IOException {
+        synchronized (this) {
+            Deque<StandardJavaFileManager> idle = fileManagers.get(classpath);
+            if (idle != null && !idle.isEmpty()) {
+                return idle.pop();
+            }
+        }
+        StandardJavaFileManager fileManager = compiler.getStandardFileManager(null, null, null);
+        fileManager.setLocation(StandardLocation.CLASS_PATH, expandClasspath(classpath));
+        return fileManager;
+    }
+
+    /** File managers are not thread-safe: each is used by one compilation at a time. */
+    private synchronized void release(String classpath, StandardJavaFileManager fileManager) {
+        fileManagers.computeIfAbsent(classpath, key -> new ArrayDeque<>()).push(fileManager);
+    }
+
+    /** Classpath entries with javac's {@code dir/*} wildcard expanded to the jars of dir. */
+    static List<File> expandClasspath(String classpath) {
+        List<File> entries = new ArrayList<>();
+        for (String entry : classpath.split(File.pathSeparator)) {
+            if (entry.isEmpty()) {
+                continue;
+            }
+            if (entry.equals("*") || entry.endsWith(File.separator + "*") || entry.endsWith("/*")) {
+                File dir = new File(entry.substring(0, entry.length() - 1));
+                File[] jars = dir.listFiles((d, name) -> name.toLowerCase(Locale.ROOT).endsWith(".jar"));
+                if (jars != null) {
+                    Arrays.sort(jars);
+                    entries.addAll(Arrays.asList(jars));
+                }
+            } else {
+                entries.add(new File(entry));
+            }
+        }
+        return entries;
+    }
+
+    private static String diagnosticLine(String kind, String source, long line, long column, String code, String message) {
+        return String.join("\t", kind, escape(source), Long.toString(line), Long.toString(column),
+                escape(code), escape(message)) + "\n";
+    }
+
+    private static String escape(String value) {
+        return value.replace("\\", "\\\\").replace("\t", "\\t").replace("\r", "").replace("\n", "\\n");
+    }
+
+    private static void closeQuietly(StandardJavaFileManager fileManager) {
+        try {
+            fileManager.close();
+        } catch (IOException e) {
+            // the jars are only read
+        }
+    }
+}
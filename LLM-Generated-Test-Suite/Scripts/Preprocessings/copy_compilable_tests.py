@@ -1,51 +1,72 @@
 import os
-import shutil
+import argparse
+from materialize import MODES, materialize, set_mode, summary as materialize_summary
 
 # === Source and target directories ===
 REORG_DIR = "LLM-GENERATED-PROCESSED-REORG"
 TARGET_DEFECTS4J = "Defects4J-Compilable-OK"
 TARGET_SF110 = "SF110-Compilable-OK"
 
+def copy_compilable_dir(root, files):
+    """
+    Copy a reorganized test directory whose classes compiled to its Compilable-OK target.
+    Returns (compilable classes, copied classes, copied file paths).
+    """
+    checked, copied, copied_files = 0, 0, []
+    java_files = [f for f in files if f.endswith(".java")]
+    for java_file in java_files:
+        class_file = java_file.replace(".java", ".class")
+        if class_file in files:
+            checked += 1
+            rel_path = os.path.relpath(root, REORG_DIR)
+            parts = rel_path.split(os.sep)
+
+            if len(parts) < 3:
+                continue
+
+            model = parts[0]         # GPT or MISTRAL
+            dataset = parts[1]       # Defects4J or SF110
+
+            if dataset == "Defects4J":
+                dest_root = os.path.join(TARGET_DEFECTS4J, model, *parts[2:])
+            elif dataset == "SF110":
+                dest_root = os.path.join(TARGET_SF110, model, *parts[2:])
+            else:
+                continue
+
+            os.makedirs(dest_root, exist_ok=True)
+
+            for f in files:
+                if f.endswith((".java", ".class", ".cctr.csv")):
+                    src_file = os.path.join(root, f)
+                    dst_file = os.path.join(dest_root, f)
+                    materialize(src_file, dst_file)
+                    if dst_file not in copied_files:
+                        copied_files.append(dst_file)
+
+            print(f"Copied: {java_file} → {dest_root}")
+            copied += 1
+    return checked, copied, copied_files
+
 def copy_compilable_tests():
     total_checked = 0
     total_copied = 0
 
     for root, _, files in os.walk(REORG_DIR):
-        java_files = [f for f in files if f.endswith(".java")]
-        for java_file in java_files:
-            class_file = java_file.replace(".java", ".class")
-            if class_file in files:
-                total_checked += 1
-                rel_path = os.path.relpath(root, REORG_DIR)
-                parts = rel_path.split(os.sep)
-
-                if len(parts) < 3:
-                    continue
-
-                model = parts[0]         # GPT or MISTRAL
-                dataset = parts[1]       # Defects4J or SF110
-
-                if dataset == "Defects4J":
-                    dest_root = os.path.join(TARGET_DEFECTS4J, model, *parts[2:])
-                elif dataset == "SF110":
-                    dest_root = os.path.join(TARGET_SF110, model, *parts[2:])
-                else:
-                    continue
-
-                os.makedirs(dest_root, exist_ok=True)
-
-                for f in files:
-                    if f.endswith(".java") or f.endswith(".class"):
-                        src_file = os.path.join(root, f)
-                        dst_file = os.path.join(dest_root, f)
-                        shutil.copy2(src_file, dst_file)
-
-                print(f"Copied: {java_file} → {dest_root}")
-                total_copied += 1
+        checked, copied, _ = copy_compilable_dir(root, files)
+        total_checked += checked
+        total_copied += copied
 
     print("\nStep 3 complete: Copying compilable tests.")
     print(f"Total compilable classes detected: {total_checked}")
     print(f"Total successfully copied: {total_copied}")
+    print(f"Files placed by {materialize_summary() or 'nothing'}")
 
 if __name__ == "__main__":
+    arg_parser = argparse.ArgumentParser(description="Copy the compilable tests to the Compilable-OK trees.")
+    arg_parser.add_argument("--materialize", choices=MODES, default=None,
+                            help="reflink, hard link or copy the files (default: auto, the first that works)")
+    args = arg_parser.parse_args()
+    if args.materialize:
+        set_mode(args.materialize)
     copy_compilable_tests()
@@ -1,7 +1,10 @@
 import os
 import re
 import csv
+import argparse
 from collections import defaultdict
+from concurrent.futures import ProcessPoolExecutor
+from materialize import write_file
 from tree_sitter import Language, Parser
 import tree_sitter_java as tsjava
 import tiktoken
@@ -16,6 +19,8 @@ OUTPUT_DIR = "LLM-GENERATED-PROCESSED"
 SYNTAX_CSV = "llm_syntax_statistics.csv"
 ERRORS_CSV = "llm_syntax_errors.csv"
 SUMMARY_CSV = "llm_summary_statistics.csv"
+STATS_FIELDS = ["Model", "Dataset", "Project", "Class", "Bug-ID", "Iteration", "Filename", "Syntax OK", "Methods", "LOC", "Tokens"]
+ERROR_FIELDS = ["Model", "Dataset", "Project", "Class", "Bug-ID", "Iteration", "Filename", "Error Type", "Start", "End"]
 
 def extract_code(file_path):
     try:
@@ -29,48 +34,42 @@ def extract_code(file_path):
 def count_tokens(code):
     return len(ENCODING.encode(code))
 
-def extract_methods_and_locs(node, code_bytes):
-    methods, loc_count = [], 0
-    if node.type == 'method_declaration':
-        method_code = code_bytes[node.start_byte:node.end_byte].decode('utf8')
-        methods.append(method_code)
-        loc_count += len(method_code.splitlines())
-    for child in node.children:
-        child_methods, child_locs = extract_methods_and_locs(child, code_bytes)
-        methods.extend(child_methods)
-        loc_count += child_locs
-    return methods, loc_count
-
-def analyze_java_code(java_code):
+def analyze_code(java_code):
+    """
+    Parse an extracted block once and walk it once: (syntax OK, methods, LOC, tokens, errors).
+    Methods, LOC and tokens are counted for correct code only; errors lists every node
+    containing a syntax error, in document order, for incorrect code only.
+    """
+    code_bytes = java_code.encode('utf8')
     try:
-        code_bytes = java_code.encode('utf8')
-        tree = parser.parse(code_bytes)
-        root = tree.root_node
-        methods, locs = extract_methods_and_locs(root, code_bytes)
-        tokens = count_tokens(java_code)
-        return len(methods), locs, tokens
+        root = parser.parse(code_bytes).root_node
     except Exception:
-        return 0, 0, 0
-
-def is_syntax_correct(java_code):
-    try:
-        tree = parser.parse(java_code.encode('utf8'))
-        return not tree.root_node.has_error, tree
-    except Exception as e:
-        return False, str(e)
-
-def collect_syntax_errors(node, errors):
-    if node.has_error:
-        errors.append({"type": node.type, "start": node.start_point, "end": node.end_point})
-    for child in node.children:
-        collect_syntax_errors(child, errors)
-
-def main():
-    syntax_stats = []
-    syntax_errors = []
-    total_tests, syntax_ok_count = 0, 0
-    summary_stats = defaultdict(lambda: {"total": 0, "correct": 0})
-
+        return False, 0, 0, 0, []
+
+    correct = not root.has_error
+    method_count, loc_count, errors = 0, 0, []
+    cursor = root.walk()
+    while True:
+        node = cursor.node
+        if correct:
+            if node.type == 'method_declaration':
+                method_count += 1
+                loc_count += len(code_bytes[node.start_byte:node.end_byte].decode('utf8').splitlines())
+            descend = True
+        else:
+            # A subtree without has_error holds no error: skip it
+            descend = node.has_error
+            if descend:
+                errors.append({"type": node.type, "start": node.start_point, "end": node.end_point})
+        if descend and cursor.goto_first_child():
+            continue
+        while not cursor.goto_next_sibling():
+            if not cursor.goto_parent():
+                tokens = count_tokens(java_code) if correct else 0
+                return correct, method_count, loc_count, tokens, errors
+
+def list_iterations():
+    """(model, dataset, project, class, bug_or_null, iteration) of every generated iteration folder."""
     for model in ["GPT", "MISTRAL"]:
         for dataset in ["Defects4J", "SF110"]:
             dataset_path = os.path.join(BASE_DIR, model, dataset)
@@ -80,81 +79,121 @@ def main():
                 for clazz in os.listdir(os.path.join(dataset_path, project)):
                     for bug_or_null in os.listdir(os.path.join(dataset_path, project, clazz)):
                         for iteration in os.listdir(os.path.join(dataset_path, project, clazz, bug_or_null)):
-                            iter_path = os.path.join(dataset_path, project, clazz, bug_or_null, iteration)
-                            for filename in os.listdir(iter_path):
-                                if not filename.endswith(".txt"):
-                                    continue
-                                code_blocks = extract_code(os.path.join(iter_path, filename))
-                                if not code_blocks:
-                                    continue
-                                java_code = "\n".join(code_blocks)
-                                correct, tree_or_err = is_syntax_correct(java_code)
-                                method_count, loc, tokens = analyze_java_code(java_code) if correct else (0, 0, 0)
-
-                                total_tests += 1
-                                if correct:
-                                    syntax_ok_count += 1
-
-                                summary_stats[(model, dataset)]["total"] += 1
-                                if correct:
-                                    summary_stats[(model, dataset)]["correct"] += 1
-
-                                syntax_stats.append({
-                                    "Model": model, "Dataset": dataset, "Project": project,
-                                    "Class": clazz, "Bug-ID": bug_or_null if dataset == "Defects4J" else "",
-                                    "Iteration": iteration, "Filename": filename, "Syntax OK": correct,
-                                    "Methods": method_count, "LOC": loc, "Tokens": tokens
-                                })
-
-                                if not correct and isinstance(tree_or_err, object):
-                                    errors = []
-                                    collect_syntax_errors(tree_or_err.root_node, errors)
-                                    for err in errors:
-                                        syntax_errors.append({
-                                            "Model": model, "Dataset": dataset, "Project": project,
-                                            "Class": clazz, "Bug-ID": bug_or_null if dataset == "Defects4J" else "",
-                                            "Iteration": iteration, "Filename": filename,
-                                            "Error Type": err["type"], "Start": err["start"], "End": err["end"]
-                                        })
-
-                                output_path = os.path.join(
-                                    OUTPUT_DIR, model, dataset, project, clazz,
-                                    bug_or_null if dataset == "Defects4J" else "",
-                                    iteration
-                                )
-                                os.makedirs(output_path, exist_ok=True)
-                                with open(os.path.join(output_path, f"{clazz}Test.java"), 'w', encoding='utf-8') as f:
-                                    f.write(java_code)
-
-    # Save outputs
-    with open(SYNTAX_CSV, 'w', newline='', encoding='utf-8') as f:
-        writer = csv.DictWriter(f, fieldnames=syntax_stats[0].keys())
-        writer.writeheader()
-        writer.writerows(syntax_stats)
-
-    if syntax_errors:
-        with open(ERRORS_CSV, 'w', newline='', encoding='utf-8') as f:
-            writer = csv.DictWriter(f, fieldnames=syntax_errors[0].keys())
-            writer.writeheader()
-            writer.writerows(syntax_errors)
-
-    with open(SUMMARY_CSV, 'w', newline='', encoding='utf-8') as f:
-        writer = csv.DictWriter(f, fieldnames=["Model", "Dataset", "Total Tests", "Syntax Correct", "Syntax Incorrect", "Success Rate (%)"])
-        writer.writeheader()
-        for (model, dataset), values in summary_stats.items():
-            total = values["total"]
-            correct = values["correct"]
-            incorrect = total - correct
-            rate = f"{(correct / total * 100):.2f}" if total else "0.00"
-            writer.writerow({
-                "Model": model,
-                "Dataset": dataset,
-                "Total Tests": total,
-                "Syntax Correct": correct,
-                "Syntax Incorrect": incorrect,
-                "Success Rate (%)": rate
+                            yield model, dataset, project, clazz, bug_or_null, iteration
+
+def iteration_dir(key):
+    return os.path.join(BASE_DIR, *key)
+
+def extracted_test_path(key):
+    model, dataset, project, clazz, bug_or_null, iteration = key
+    return os.path.join(
+        OUTPUT_DIR, model, dataset, project, clazz,
+        bug_or_null if dataset == "Defects4J" else "",
+        iteration, f"{clazz}Test.java"
+    )
+
+def analyze_iteration(key):
+    """
+    Extract the Java code of an iteration's .txt outputs into its test file and
+    return the (syntax statistics rows, syntax error rows) of those outputs.
+    """
+    model, dataset, project, clazz, bug_or_null, iteration = key
+    iter_path = iteration_dir(key)
+    syntax_stats, syntax_errors = [], []
+    for filename in os.listdir(iter_path):
+        if not filename.endswith(".txt"):
+            continue
+        code_blocks = extract_code(os.path.join(iter_path, filename))
+        if not code_blocks:
+            continue
+        java_code = "\n".join(code_blocks)
+        correct, method_count, loc, tokens, errors = analyze_code(java_code)
+
+        syntax_stats.append({
+            "Model": model, "Dataset": dataset, "Project": project,
+            "Class": clazz, "Bug-ID": bug_or_null if dataset == "Defects4J" else "",
+            "Iteration": iteration, "Filename": filename, "Syntax OK": correct,
+            "Methods": method_count, "LOC": loc, "Tokens": tokens
+        })
+
+        for err in errors:
+            syntax_errors.append({
+                "Model": model, "Dataset": dataset, "Project": project,
+                "Class": clazz, "Bug-ID": bug_or_null if dataset == "Defects4J" else "",
+                "Iteration": iteration, "Filename": filename,
+                "Error Type": err["type"], "Start": err["start"], "End": err["end"]
             })
 
+        output_path = extracted_test_path(key)
+        os.makedirs(os.path.dirname(output_path), exist_ok=True)
+        # Replaced, not rewritten: the reorganized tree may hard-link to it
+        write_file(output_path, java_code)
+    return syntax_stats, syntax_errors
+
+class ReportWriter:
+    """Writes the statistics and error CSVs row by row and the summary CSV on close."""
+
+    def __init__(self):
+        self.stats_file = open(SYNTAX_CSV, 'w', newline='', encoding='utf-8')
+        self.stats_writer = csv.DictWriter(self.stats_file, fieldnames=STATS_FIELDS)
+        self.stats_writer.writeheader()
+        self.errors_file = self.errors_writer = None
+        self.summary_stats = defaultdict(lambda: {"total": 0, "correct": 0})
+
+    def add(self, syntax_stats, syntax_errors):
+        for row in syntax_stats:
+            self.summary_stats[(row["Model"], row["Dataset"])]["total"] += 1
+            if row["Syntax OK"]:
+                self.summary_stats[(row["Model"], row["Dataset"])]["correct"] += 1
+        self.stats_writer.writerows(syntax_stats)
+
+        # The error CSV is only created once there is an error to report
+        if syntax_errors and self.errors_writer is None:
+            self.errors_file = open(ERRORS_CSV, 'w', newline='', encoding='utf-8')
+            self.errors_writer = csv.DictWriter(self.errors_file, fieldnames=ERROR_FIELDS)
+            self.errors_writer.writeheader()
+        if syntax_errors:
+            self.errors_writer.writerows(syntax_errors)
+
+    def close(self):
+        self.stats_file.close()
+        if self.errors_file:
+            self.errors_file.close()
+
+        with open(SUMMARY_CSV, 'w', newline='', encoding='utf-8') as f:
+            writer = csv.DictWriter(f, fieldnames=["Model", "Dataset", "Total Tests", "Syntax Correct", "Syntax Incorrect", "Success Rate (%)"])
+            writer.writeheader()
+            for (model, dataset), values in self.summary_stats.items():
+                total = values["total"]
+                correct = values["correct"]
+                incorrect = total - correct
+                rate = f"{(correct / total * 100):.2f}" if total else "0.00"
+                writer.writerow({
+                    "Model": model,
+                    "Dataset": dataset,
+                    "Total Tests": total,
+                    "Syntax Correct": correct,
+                    "Syntax Incorrect": incorrect,
+                    "Success Rate (%)": rate
+                })
+
+def save_reports(syntax_stats, syntax_errors):
+    reports = ReportWriter()
+    reports.add(syntax_stats, syntax_errors)
+    reports.close()
+
+def main():
+    arg_parser = argparse.ArgumentParser(description="Extract and syntax-check the generated test suites")
+    arg_parser.add_argument("--workers", type=int, default=os.cpu_count(),
+                            help="processes analyzing iterations (default: all cores)")
+    args = arg_parser.parse_args()
+
+    # Rows are streamed to the CSVs in iteration order as the pool returns them
+    reports = ReportWriter()
+    with ProcessPoolExecutor(max_workers=args.workers) as executor:
+        for stats, errors in executor.map(analyze_iteration, list_iterations(), chunksize=16):
+            reports.add(stats, errors)
+    reports.close()
     print("Step 1 complete: Syntax analysis finished.")
 
 if __name__ == "__main__":
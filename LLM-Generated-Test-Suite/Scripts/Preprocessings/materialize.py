@@ -0,0 +1,87 @@
+"""Place a file at a second location without copying its bytes where the filesystem allows it.
+
+The processed, reorganized and Compilable-OK trees hold the same small files
+several times over. materialize(src, dst) tries, in order:
+
+  reflink  a copy-on-write clone (FICLONE; btrfs, XFS, ...), an independent
+           file that shares blocks until either side is written
+  link     a hard link: same inode, so writers must replace files rather than
+           rewrite them in place (tmp file + os.replace, as the stages do)
+  copy     shutil.copy2, as before
+
+Methods a filesystem refuses are remembered per (source device, destination
+device) pair. The mode comes from --materialize or LLMGEN_MATERIALIZE:
+auto (the order above), reflink, link or copy.
+"""
+import os
+import errno
+import shutil
+import threading
+
+MODES = ("auto", "reflink", "link", "copy")
+FICLONE = 0x40049409  # _IOW(0x94, 9, int), linux/fs.h
+
+_mode = os.environ.get("LLMGEN_MATERIALIZE", "auto")
+_unsupported = set()
+_lock = threading.Lock()
+counts = {"reflink": 0, "link": 0, "copy": 0}
+
+def set_mode(mode):
+    global _mode
+    if mode not in MODES:
+        raise ValueError(f"unknown materialization mode {mode!r}")
+    _mode = mode
+    os.environ["LLMGEN_MATERIALIZE"] = mode  # for the scripts run as subprocesses
+
+def _reflink(src, dst):
+    import fcntl
+    with open(src, "rb") as fin, open(dst, "wb") as fout:
+        try:
+            fcntl.ioctl(fout.fileno(), FICLONE, fin.fileno())
+        except OSError:
+            fout.close()
+            os.remove(dst)
+            raise
+    shutil.copystat(src, dst)
+
+def _methods():
+    if _mode == "auto":
+        return ("reflink", "link", "copy") if hasattr(os, "link") else ("copy",)
+    return (_mode,) if _mode == "copy" else (_mode, "copy")
+
+def materialize(src, dst):
+    """Make dst have the content of src, replacing any existing dst; returns the method used."""
+    if os.path.lexists(dst):
+        os.remove(dst)
+    devices = (os.stat(src).st_dev, os.stat(os.path.dirname(os.path.abspath(dst))).st_dev)
+    for method in _methods():
+        if (method, devices) in _unsupported:
+            continue
+        try:
+            if method == "reflink":
+                _reflink(src, dst)
+            elif method == "link":
+                os.link(src, dst)
+            else:
+                shutil.copy2(src, dst)
+        except (OSError, ImportError) as e:
+            refused = isinstance(e, ImportError) or e.errno in (
+                errno.EXDEV, errno.EOPNOTSUPP, errno.ENOTTY, errno.EINVAL, errno.EPERM, errno.EMLINK, errno.ENOSYS)
+            if method == "copy" or not refused:
+                raise
+            with _lock:
+                _unsupported.add((method, devices))
+            continue
+        with _lock:
+            counts[method] += 1
+        return method
+
+def write_file(path, content):
+    """Write text by replacing the file, never rewriting in place an inode another tree may link to."""
+    tmp_path = f"{path}.tmp-{os.getpid()}-{threading.get_ident()}"
+    with open(tmp_path, "w", encoding="utf-8") as f:
+        f.write(content)
+    os.replace(tmp_path, path)
+
+def summary():
+    return ", ".join(f"{count} {method}" for method, count in counts.items() if count)
@@ -0,0 +1,102 @@
+"""Persistent class-to-package index of the Defects4J / SF110 source trees.
+
+Each source tree is walked once and its simple class names are mapped to the
+package directories declaring them, instead of one os.walk per class and
+iteration. The index is saved as JSON and reused across runs; a tree is
+rescanned when its fingerprint (relative path, size and mtime of every .java
+file, hashed) changes: a class added, removed, moved or edited at any depth.
+"""
+import os
+import json
+import hashlib
+import threading
+from concurrent.futures import ThreadPoolExecutor
+
+INDEX_VERSION = 1
+
+def tree_fingerprint(src_path):
+    """Hash of the relative path, size and mtime of every .java file below src_path; None when the tree is missing."""
+    if not os.path.isdir(src_path):
+        return None
+    stats = []
+    pending = [src_path]
+    while pending:
+        directory = pending.pop()
+        try:
+            with os.scandir(directory) as entries:
+                for entry in entries:
+                    if entry.is_dir(follow_symlinks=False):
+                        pending.append(entry.path)
+                    elif entry.name.endswith(".java"):
+                        st = entry.stat()
+                        stats.append((os.path.relpath(entry.path, src_path), st.st_size, st.st_mtime_ns))
+        except OSError:
+            continue
+    digest = hashlib.sha1()
+    for rel, size, mtime_ns in sorted(stats):
+        digest.update(f"{rel}\0{size}\0{mtime_ns}\n".encode("utf-8", "surrogateescape"))
+    return digest.hexdigest()
+
+def scan_tree(src_path):
+    """{simple class name: sorted package dirs relative to src_path} for every .java file."""
+    classes = {}
+    for root, _, files in os.walk(src_path):
+        rel = os.path.relpath(root, src_path)
+        for f in files:
+            if f.endswith(".java"):
+                classes.setdefault(f[:-len(".java")], []).append(rel)
+    return {name: sorted(dirs) for name, dirs in classes.items()}
+
+class PackageIndex:
+    def __init__(self, path, rebuild=False):
+        self.path = path
+        self.trees = {}
+        self.validated = set()
+        self.dirty = False
+        self.lock = threading.Lock()
+        if not rebuild and os.path.isfile(path):
+            try:
+                with open(path, "r", encoding="utf-8") as f:
+                    data = json.load(f)
+                if data.get("version") == INDEX_VERSION:
+                    self.trees = data["trees"]
+            except (OSError, ValueError, KeyError):
+                self.trees = {}
+
+    def prepare(self, src_paths, workers=None):
+        """Validate or (re)scan the given trees in parallel."""
+        with ThreadPoolExecutor(max_workers=workers) as executor:
+            list(executor.map(self._ensure, set(src_paths)))
+
+    def _ensure(self, src_path):
+        with self.lock:
+            if src_path in self.validated:
+                return self.trees.get(src_path)
+        fingerprint = tree_fingerprint(src_path)
+        entry = self.trees.get(src_path)
+        if entry is None or entry["fingerprint"] != fingerprint:
+            entry = {"fingerprint": fingerprint, "classes": scan_tree(src_path) if fingerprint else {}}
+            with self.lock:
+                self.trees[src_path] = entry
+                self.dirty = True
+        with self.lock:
+            self.validated.add(src_path)
+        return entry
+
+    def fingerprint(self, src_path):
+        """Fingerprint of src_path as validated in this run; the tree is walked at most once."""
+        return self._ensure(src_path)["fingerprint"]
+
+    def candidates(self, src_path, clazz):
+        """Every package dir of src_path declaring `clazz`, sorted; empty when unknown."""
+        return self._ensure(src_path)["classes"].get(clazz, [])
+
+    def save(self):
+        """Write the index atomically if any tree was (re)scanned."""
+        if not self.dirty:
+            return
+        tmp_path = f"{self.path}.tmp"
+        with open(tmp_path, "w", encoding="utf-8") as f:
+            json.dump({"version": INDEX_VERSION, "trees": self.trees}, f)
+        os.replace(tmp_path, self.path)
+        self.dirty = False
@@ -1,9 +1,12 @@
 import os
-import shutil
 import subprocess
 import csv
 import re
+import argparse
 from collections import defaultdict
+from compile_client import CompileClient, format_diagnostic
+from package_index import PackageIndex
+from materialize import MODES, materialize, set_mode, write_file, summary as materialize_summary
 
 BASE_DIR = "LLM-GENERATED-PROCESSED"
 OUTPUT_DIR = "LLM-GENERATED-PROCESSED-REORG"
@@ -20,56 +23,108 @@ DETAILED_CSV = "llmgen_compilation_stats_detailed.csv"
 SUMMARY_CSV = "llmgen_compilation_stats_summary.csv"
 ERROR_CSV = "llmgen_compilation_error_types_summary.csv"
 PACKAGE_STATS_CSV = "llmgen_package_injection_summary.csv"
+PACKAGE_AMBIGUITY_CSV = "llmgen_package_ambiguities.csv"
+PACKAGE_INDEX_JSON = "llmgen_package_index.json"
 
-def find_fqdn(dataset, project, clazz, bug_or_iter):
+# Built by (cd Approach/cctr-core && mvn -B package); --metrics compiles with its javac plugin
+CCTR_CORE_JAR = os.path.join(os.path.dirname(os.path.abspath(__file__)),
+                             "..", "..", "..", "Approach", "cctr-core", "target", "cctr-core-1.0-SNAPSHOT.jar")
+
+PACKAGE_PATTERN = re.compile(r'^\s*package\s+([\w\.]+)\s*;', re.MULTILINE)
+
+def source_tree(dataset, project, bug_or_iter):
     base_source = SOURCES_DEFECTS4J if dataset == "Defects4J" else SOURCES_SF110
-    src_path = os.path.join(base_source, project, bug_or_iter) if dataset == "Defects4J" else os.path.join(base_source, project)
-    for root, _, files in os.walk(src_path):
-        if f"{clazz}.java" in files:
-            return os.path.relpath(root, src_path)
-    return None
-
-def ensure_package(java_path, fqdn):
-    with open(java_path, 'r', encoding='utf-8') as f:
+    return os.path.join(base_source, project, bug_or_iter) if dataset == "Defects4J" else os.path.join(base_source, project)
+
+def declared_packages(test_dir):
+    """Package dirs declared by the generated tests of a directory."""
+    packages = set()
+    for f in os.listdir(test_dir):
+        if f.endswith(".java"):
+            with open(os.path.join(test_dir, f), 'r', encoding='utf-8', errors='ignore') as fh:
+                match = PACKAGE_PATTERN.search(fh.read())
+            if match:
+                packages.add(match.group(1).replace('.', os.sep))
+    return packages
+
+def find_fqdn(index, dataset, project, clazz, bug_or_iter, test_dir, ambiguities):
+    """
+    Package dir of `clazz` in its source tree, or None. When several packages
+    declare the class, the one the generated test already declares wins, else
+    the first in path order; each such choice is recorded in `ambiguities`.
+    """
+    candidates = index.candidates(source_tree(dataset, project, bug_or_iter), clazz)
+    if len(candidates) <= 1:
+        return candidates[0] if candidates else None
+    declared = declared_packages(test_dir).intersection(candidates)
+    chosen = min(declared) if declared else candidates[0]
+    ambiguities.append([dataset, project, bug_or_iter or "", clazz, test_dir, ";".join(candidates), chosen])
+    return chosen
+
+def write_with_package(src_path, dst_path, fqdn):
+    with open(src_path, 'r', encoding='utf-8') as f:
         content = f.read()
     content = re.sub(r'^\s*package\s+[\w\.]+;\s*', '', content, count=1, flags=re.MULTILINE)
     package_line = f"package {fqdn.replace(os.sep, '.')};\n\n"
-    with open(java_path, 'w', encoding='utf-8') as f:
-        f.write(package_line + content)
+    write_file(dst_path, package_line + content)
 
-def reorganize_files():
-    stats = defaultdict(lambda: defaultdict(int))
+def needed_source_trees():
+    """Every source tree reorganize_files() will look classes up in."""
+    trees = set()
+    for model in os.listdir(BASE_DIR):
+        for dataset in os.listdir(os.path.join(BASE_DIR, model)):
+            for project in os.listdir(os.path.join(BASE_DIR, model, dataset)):
+                if dataset != "Defects4J":
+                    trees.add(source_tree(dataset, project, None))
+                    continue
+                for clazz in os.listdir(os.path.join(BASE_DIR, model, dataset, project)):
+                    for bug in os.listdir(os.path.join(BASE_DIR, model, dataset, project, clazz)):
+                        trees.add(source_tree(dataset, project, bug))
+    return trees
+
+def list_processed_iterations():
+    """(model, dataset, project, class, bug_or_iter, iteration) of every extracted iteration; iteration is None for SF110."""
     for model in os.listdir(BASE_DIR):
         for dataset in os.listdir(os.path.join(BASE_DIR, model)):
             for project in os.listdir(os.path.join(BASE_DIR, model, dataset)):
                 for clazz in os.listdir(os.path.join(BASE_DIR, model, dataset, project)):
                     path = os.path.join(BASE_DIR, model, dataset, project, clazz)
                     for bug_or_iter in os.listdir(path):
-                        bug_path = os.path.join(path, bug_or_iter)
                         if dataset == "Defects4J":
-                            for iteration in os.listdir(bug_path):
-                                iter_path = os.path.join(bug_path, iteration)
-                                fqdn = find_fqdn(dataset, project, clazz, bug_or_iter) or ""
-                                target = os.path.join(OUTPUT_DIR, model, dataset, project, clazz, bug_or_iter, iteration, fqdn)
-                                os.makedirs(target, exist_ok=True)
-                                for f in os.listdir(iter_path):
-                                    if f.endswith(".java"):
-                                        shutil.copy2(os.path.join(iter_path, f), os.path.join(target, f))
-                                        if fqdn:
-                                            ensure_package(os.path.join(target, f), fqdn)
-                                            stats[model][dataset] += 1
+                            for iteration in os.listdir(os.path.join(path, bug_or_iter)):
+                                yield model, dataset, project, clazz, bug_or_iter, iteration
                         else:
-                            iter_path = bug_path
-                            fqdn = find_fqdn(dataset, project, clazz, None) or ""
-                            target = os.path.join(OUTPUT_DIR, model, dataset, project, clazz, bug_or_iter, fqdn)
-                            os.makedirs(target, exist_ok=True)
-                            for f in os.listdir(iter_path):
-                                if f.endswith(".java"):
-                                    shutil.copy2(os.path.join(iter_path, f), os.path.join(target, f))
-                                    if fqdn:
-                                        ensure_package(os.path.join(target, f), fqdn)
-                                        stats[model][dataset] += 1
+                            yield model, dataset, project, clazz, bug_or_iter, None
+
+def reorganize_target(index, model, dataset, project, clazz, bug_or_iter, iteration, ambiguities):
+    """(extracted iteration dir, package dir, reorganized target dir) of one iteration."""
+    if dataset == "Defects4J":
+        iter_path = os.path.join(BASE_DIR, model, dataset, project, clazz, bug_or_iter, iteration)
+        fqdn = find_fqdn(index, dataset, project, clazz, bug_or_iter, iter_path, ambiguities) or ""
+        target = os.path.join(OUTPUT_DIR, model, dataset, project, clazz, bug_or_iter, iteration, fqdn)
+    else:
+        iter_path = os.path.join(BASE_DIR, model, dataset, project, clazz, bug_or_iter)
+        fqdn = find_fqdn(index, dataset, project, clazz, None, iter_path, ambiguities) or ""
+        target = os.path.join(OUTPUT_DIR, model, dataset, project, clazz, bug_or_iter, fqdn)
+    return iter_path, fqdn, target
+
+def copy_with_package(iter_path, target, fqdn):
+    """
+    Place an iteration's tests into target, rewritten with the package injected or
+    else materialized (linked) unchanged; returns the injection count.
+    """
+    os.makedirs(target, exist_ok=True)
+    injections = 0
+    for f in os.listdir(iter_path):
+        if f.endswith(".java"):
+            if fqdn:
+                write_with_package(os.path.join(iter_path, f), os.path.join(target, f), fqdn)
+                injections += 1
+            else:
+                materialize(os.path.join(iter_path, f), os.path.join(target, f))
+    return injections
 
+def save_package_reports(stats, ambiguities):
     with open(PACKAGE_STATS_CSV, 'w', newline='', encoding='utf-8') as f:
         writer = csv.writer(f)
         writer.writerow(["Model", "Dataset", "Package_Injections"])
@@ -77,36 +132,115 @@ def reorganize_files():
             for dataset, count in datasets.items():
                 writer.writerow([model, dataset, count])
 
-def compile_files():
-    detailed = []
-    summary = defaultdict(lambda: defaultdict(lambda: defaultdict(lambda: {"total": 0, "success": 0, "failure": 0})))
-    error_types = defaultdict(lambda: defaultdict(lambda: defaultdict(lambda: defaultdict(int))))
+    with open(PACKAGE_AMBIGUITY_CSV, 'w', newline='', encoding='utf-8') as f:
+        writer = csv.writer(f)
+        writer.writerow(["Dataset", "Project", "Bug-ID", "Class", "Test_Dir", "Candidates", "Chosen"])
+        writer.writerows(ambiguities)
 
-    for root, _, files in os.walk(OUTPUT_DIR):
-        java_files = [os.path.join(root, f) for f in files if f.endswith(".java")]
-        if not java_files:
-            continue
+def reorganize_files(rebuild_index=False):
+    index = PackageIndex(PACKAGE_INDEX_JSON, rebuild=rebuild_index)
+    index.prepare(needed_source_trees())
+    index.save()
 
-        parts = os.path.relpath(root, OUTPUT_DIR).split(os.sep)
-        if len(parts) < 6:
-            continue
+    stats = defaultdict(lambda: defaultdict(int))
+    ambiguities = []
+    for model, dataset, project, clazz, bug_or_iter, iteration in list_processed_iterations():
+        iter_path, fqdn, target = reorganize_target(index, model, dataset, project, clazz, bug_or_iter, iteration, ambiguities)
+        injections = copy_with_package(iter_path, target, fqdn)
+        if injections:
+            stats[model][dataset] += injections
 
-        model, dataset = parts[0], parts[1]
-        project, clazz = parts[2], parts[3]
-        bug_id, iteration = parts[4], parts[5] if dataset == "Defects4J" else ("N/A", parts[4])
-        src_dir = os.path.join(SOURCES_DEFECTS4J, project, bug_id) if dataset == "Defects4J" else os.path.join(SOURCES_SF110, project)
+    save_package_reports(stats, ambiguities)
 
-        summary[dataset][model][iteration]["total"] += 1
+def compile_job(root, files):
+    """(metadata, classpath, java files) of a test directory of OUTPUT_DIR, or None if it has nothing to compile."""
+    java_files = [os.path.join(root, f) for f in files if f.endswith(".java")]
+    if not java_files:
+        return None
+
+    parts = os.path.relpath(root, OUTPUT_DIR).split(os.sep)
+    if len(parts) < 6:
+        return None
+
+    model, dataset = parts[0], parts[1]
+    project, clazz = parts[2], parts[3]
+    bug_id, iteration = parts[4], parts[5] if dataset == "Defects4J" else ("N/A", parts[4])
+    src_dir = os.path.join(SOURCES_DEFECTS4J, project, bug_id) if dataset == "Defects4J" else os.path.join(SOURCES_SF110, project)
 
-        cp = f".:{src_dir}:{JUNIT_PATH}:{HAMCREST_PATH}:{SLF4J_PATH}:{DEPENDENCY_DIR}/*"
+    cp = f".:{src_dir}:{JUNIT_PATH}:{HAMCREST_PATH}:{SLF4J_PATH}:{DEPENDENCY_DIR}/*"
+    return (dataset, model, project, clazz, bug_id, iteration), cp, java_files
+
+def collect_compile_jobs():
+    """(metadata, classpath, java files) for every test directory of OUTPUT_DIR."""
+    jobs = []
+    for root, _, files in os.walk(OUTPUT_DIR):
+        job = compile_job(root, files)
+        if job:
+            jobs.append(job)
+    return jobs
+
+def compile_with_javac(cp, java_files, plugin=None):
+    """One javac process per directory; returns (success, first line of its error output)."""
+    if plugin:
+        cmd = ["javac", "-cp", f"{cp}:{plugin}", "-Xplugin:CCTR", "-XDallowStringFolding=false"] + java_files
+    else:
         cmd = ["javac", "-cp", cp] + java_files
+    try:
+        subprocess.run(cmd, check=True, stdout=subprocess.PIPE, stderr=subprocess.PIPE)
+        return True, ""
+    except subprocess.CalledProcessError as e:
+        return False, e.stderr.decode("utf-8").splitlines()[0] if e.stderr else "Unknown"
+
+def compile_with_server(jobs, threads=None, plugin=None):
+    """All directories through one in-process javac service; same result shape as compile_with_javac."""
+    with CompileClient(threads, plugin=plugin) as compiler:
+        results = compiler.compile_all((cp, java_files) for _, cp, java_files in jobs)
+    return [compile_outcome(success, diagnostics) for success, diagnostics in results]
+
+def compile_outcome(success, diagnostics):
+    """(success, first error line) of a compile server result."""
+    if success:
+        return True, ""
+    return False, format_diagnostic(diagnostics[0]) if diagnostics else "Unknown"
 
-        try:
-            subprocess.run(cmd, check=True, stdout=subprocess.PIPE, stderr=subprocess.PIPE)
+def compile_files(use_javac=False, threads=None, plugin=None):
+    jobs = collect_compile_jobs()
+    if use_javac:
+        results = [compile_with_javac(cp, java_files, plugin) for _, cp, java_files in jobs]
+    else:
+        results = compile_with_server(jobs, threads, plugin)
+    save_compile_reports((meta, success, msg) for (meta, _, _), (success, msg) in zip(jobs, results))
+
+def read_class_metrics(test_dir, test_file):
+    """
+    {"sonar", "testaware"} of a test file summed over the class rows the CCTR
+    plugin wrote for it, as compute_metrics() scores the file; None if the
+    directory was not compiled with the plugin or the file declares no class.
+    """
+    scores, found = {"sonar": 0, "testaware": 0}, False
+    for name in os.listdir(test_dir):
+        if not name.endswith(".cctr.csv"):
+            continue
+        with open(os.path.join(test_dir, name), newline='', encoding='utf-8') as f:
+            for row in csv.DictReader(f):
+                if row["Kind"] == "class" and row["File"] == test_file:
+                    scores["sonar"] += int(row["Sonar"])
+                    scores["testaware"] += int(row["TestAware"])
+                    found = True
+    return scores if found else None
+
+def save_compile_reports(outcomes):
+    """Detailed, summary and error-type CSVs from (metadata, success, first error line) per directory."""
+    detailed = []
+    summary = defaultdict(lambda: defaultdict(lambda: defaultdict(lambda: {"total": 0, "success": 0, "failure": 0})))
+    error_types = defaultdict(lambda: defaultdict(lambda: defaultdict(lambda: defaultdict(int))))
+
+    for (dataset, model, project, clazz, bug_id, iteration), success, msg in outcomes:
+        summary[dataset][model][iteration]["total"] += 1
+        if success:
             summary[dataset][model][iteration]["success"] += 1
             detailed.append([dataset, model, project, clazz, bug_id, iteration, "Success", ""])
-        except subprocess.CalledProcessError as e:
-            msg = e.stderr.decode("utf-8").splitlines()[0] if e.stderr else "Unknown"
+        else:
             err_type = msg.split(":")[0].strip()
             error_types[dataset][model][iteration][err_type] += 1
             summary[dataset][model][iteration]["failure"] += 1
@@ -135,10 +269,28 @@ def compile_files():
                         w.writerow([ds, model, it, err, count])
 
 def main():
+    arg_parser = argparse.ArgumentParser(description="Reorganize the LLM-generated tests and compile them.")
+    arg_parser.add_argument("--javac", action="store_true",
+                            help="fork one javac per test directory instead of using the compile server")
+    arg_parser.add_argument("--threads", type=int, default=None,
+                            help="concurrent compilations in the compile server (default: one per CPU)")
+    arg_parser.add_argument("--rebuild-index", action="store_true",
+                            help=f"rescan every source tree instead of reusing {PACKAGE_INDEX_JSON}")
+    arg_parser.add_argument("--materialize", choices=MODES, default=None,
+                            help="how unchanged tests are placed in the reorganized tree (default: auto)")
+    arg_parser.add_argument("--metrics", action="store_true",
+                            help="run the CCTR javac plugin while compiling, writing Name.cctr.csv next to each class")
+    args = arg_parser.parse_args()
+    if args.materialize:
+        set_mode(args.materialize)
+
     print("Step 2: Reorganizing Java files with package injection...")
-    reorganize_files()
+    reorganize_files(rebuild_index=args.rebuild_index)
+    print(f"Step 2: Tests placed by {materialize_summary() or 'nothing'}.")
     print("Step 2: Compilation started...")
-    compile_files()
+    if args.metrics and not os.path.isfile(CCTR_CORE_JAR):
+        arg_parser.error(f"{CCTR_CORE_JAR} not found; build it with: (cd Approach/cctr-core && mvn -B package)")
+    compile_files(use_javac=args.javac, threads=args.threads, plugin=CCTR_CORE_JAR if args.metrics else None)
     print("Step 2 complete: Compilation finished.")
 
 if __name__ == "__main__":
@@ -1,12 +1,56 @@
-import subprocess
+"""LLM test processing pipeline.
+
+By default every generated iteration flows through the stages on its own:
+
+  extract   Generated-TestSuite-output/*.txt -> LLM-GENERATED-PROCESSED test file
+  reorg     extracted test                   -> LLM-GENERATED-PROCESSED-REORG, package injected
+  compile   reorganized test                 -> .class files (compile server), with
+                                              --compile-metrics also Name.cctr.csv
+  copy      compiled test                    -> *-Compilable-OK
+  metrics   copied test                      -> Sonar / CCTR scores in the shared result cache
+
+Each (stage, iteration) node is stamped in PIPELINE_STAMPS with a hash of its
+inputs and the stage code; it is rebuilt only when that hash changes or one of
+its outputs is gone. Iterations run concurrently, so early classes are compiled
+and copied while later ones are still being extracted. The CSV reports of the
+three scripts are rebuilt from the stamped results at the end.
+
+--compile-metrics runs the CCTR javac plugin of Approach/cctr-core during the
+compile stage; the metrics stage then takes the scores of compiled tests from
+the plugin's files instead of parsing them again. Those scores are cached under
+a version of their own, derived from the plugin jar, so the scripts that read
+the Python engine's entries never pick them up.
+
+--sequential runs the three scripts one after the other over the whole corpus.
+"""
+import os
 import sys
+import json
+import sqlite3
+import hashlib
+import argparse
+import threading
+import subprocess
 from pathlib import Path
+from collections import defaultdict
+from concurrent.futures import ThreadPoolExecutor, ProcessPoolExecutor
+
+SCRIPT_DIR = os.path.dirname(os.path.abspath(__file__))
+sys.path.insert(0, SCRIPT_DIR)
+sys.path.insert(0, os.path.join(SCRIPT_DIR, "..", "..", "..", "Approach"))
+
+from materialize import MODES, set_mode, summary as materialize_summary
 
 # === Script paths ===
 SCRIPT_1 = Path("llm_syntax_analysis.py")
 SCRIPT_2 = Path("reorganize_and_compile.py")
 SCRIPT_3 = Path("copy_compilable_tests.py")
 
+PIPELINE_STAMPS = "llmgen_pipeline_stamps.sqlite"
+STAGES = ("extract", "reorg", "compile", "copy", "metrics")
+METRICS = ("sonar", "testaware")
+COMPILE_OUTPUTS = (".class", ".cctr.csv")
+
 def run_step(step_number, description, script_path):
     print(f"\n[Step {step_number}] {description}")
     if not script_path.is_file():
@@ -20,13 +64,342 @@ def run_step(step_number, description, script_path):
         print(f"[Failed] {description} failed with exit code {e.returncode}")
         sys.exit(e.returncode)
 
-def main():
-    print("=== LLM Test Processing Pipeline ===")
-
+def run_sequential():
     run_step(1, "Syntax analysis and Java extraction", SCRIPT_1)
     run_step(2, "File reorganization and compilation", SCRIPT_2)
     run_step(3, "Copy of compilable tests", SCRIPT_3)
 
+# === Stamps ===
+def file_digest(path):
+    digest = hashlib.sha256()
+    with open(path, "rb") as f:
+        for block in iter(lambda: f.read(1 << 20), b""):
+            digest.update(block)
+    return digest.hexdigest()
+
+def list_files(directory, suffixes):
+    if not os.path.isdir(directory):
+        return []
+    return sorted(os.path.join(directory, f) for f in os.listdir(directory) if f.endswith(suffixes))
+
+class StampStore:
+    """(stage, node) -> input signature, output files and result payload, in SQLite."""
+
+    def __init__(self, path):
+        self.db = sqlite3.connect(path, timeout=60, check_same_thread=False)
+        self.db.execute("PRAGMA journal_mode=WAL")
+        self.db.execute(
+            "CREATE TABLE IF NOT EXISTS stamps ("
+            " stage TEXT NOT NULL, node TEXT NOT NULL, signature TEXT NOT NULL,"
+            " outputs TEXT NOT NULL, payload TEXT NOT NULL, PRIMARY KEY (stage, node))"
+        )
+        self.db.commit()
+        self.lock = threading.Lock()
+
+    def get(self, stage, node):
+        with self.lock:
+            row = self.db.execute("SELECT signature, outputs, payload FROM stamps WHERE stage = ? AND node = ?",
+                                  (stage, node)).fetchone()
+        if row is None:
+            return None
+        return row[0], json.loads(row[1]), json.loads(row[2])
+
+    def put(self, stage, node, signature, outputs, payload):
+        with self.lock:
+            self.db.execute("INSERT OR REPLACE INTO stamps VALUES (?, ?, ?, ?, ?)",
+                            (stage, node, signature, json.dumps(outputs), json.dumps(payload)))
+            self.db.commit()
+
+    def prune(self, live_nodes):
+        """Forget the nodes of iterations no longer in the corpus."""
+        with self.lock:
+            stale = [row for row in self.db.execute("SELECT stage, node FROM stamps") if row[1] not in live_nodes]
+            self.db.executemany("DELETE FROM stamps WHERE stage = ? AND node = ?", stale)
+            self.db.commit()
+        return len(stale)
+
+    def close(self):
+        self.db.close()
+
+# === Metrics worker ===
+def score_tests(paths):
+    """Engine scores of copied tests, {path: {metric: score}}; runs in a worker process."""
+    from complexity_engine import compute_metrics
+    scores = {}
+    for path in paths:
+        try:
+            with open(path, "r", encoding="utf-8") as f:
+                scores[path] = compute_metrics(f.read(), METRICS)
+        except Exception as e:
+            print(f"[Failed] scoring {path}: {e}")
+    return scores
+
+# === Incremental runner ===
+class Pipeline:
+    def __init__(self, workers, jobs, use_javac=False, force=False, plugin=None):
+        import llm_syntax_analysis
+        import reorganize_and_compile
+        import copy_compilable_tests
+        import complexity_engine
+        from package_index import PackageIndex
+        from compile_client import CompileClient
+        from result_cache import ResultCache, version_key
+
+        self.extraction = llm_syntax_analysis
+        self.reorg = reorganize_and_compile
+        self.copying = copy_compilable_tests
+        self.force = force
+        self.use_javac = use_javac
+        self.plugin = plugin
+        self.stamps = StampStore(PIPELINE_STAMPS)
+        self.index = PackageIndex(reorganize_and_compile.PACKAGE_INDEX_JSON)
+        self.cache = ResultCache()
+        self.engine_version = complexity_engine.ENGINE_VERSION
+        # Plugin scores are kept apart from the Python engine's, keyed by the jar that produced them
+        self.plugin_version = version_key("cctr-core", plugin) if plugin else None
+        self.metric_versions = [self.engine_version] + ([self.plugin_version] if plugin else [])
+        self.cpu = ProcessPoolExecutor(max_workers=workers)
+        self.flows = ThreadPoolExecutor(max_workers=jobs)
+        self.compiler = None if use_javac else CompileClient(plugin=plugin)
+        self.versions = {
+            "extract": file_digest(llm_syntax_analysis.__file__),
+            "reorg": file_digest(reorganize_and_compile.__file__),
+            "compile": file_digest(reorganize_and_compile.__file__) + (f":{file_digest(plugin)}" if plugin else ""),
+            "copy": file_digest(copy_compilable_tests.__file__),
+        }
+        self.classpath_digests = {}
+        self.counts = {stage: defaultdict(int) for stage in STAGES}
+        self.counts_lock = threading.Lock()
+
+    def close(self):
+        self.flows.shutdown()
+        self.cpu.shutdown()
+        if self.compiler:
+            self.compiler.close()
+        self.index.save()
+        self.cache.close()
+        self.stamps.close()
+
+    def _count(self, stage, outcome):
+        with self.counts_lock:
+            self.counts[stage][outcome] += 1
+
+    def _signature(self, stage, inputs, extra=()):
+        digest = hashlib.sha256(self.versions[stage].encode())
+        for path in inputs:
+            digest.update(f"{path}\0{file_digest(path)}\n".encode("utf-8", "surrogateescape"))
+        for part in extra:
+            digest.update(f"{part}\n".encode("utf-8", "surrogateescape"))
+        return digest.hexdigest()
+
+    def _node(self, stage, node, inputs, extra, build):
+        """Payload of a node; build() -> (outputs, payload) runs only when the node is stale."""
+        signature = self._signature(stage, inputs, extra)
+        stamp = self.stamps.get(stage, node)
+        if not self.force and stamp and stamp[0] == signature and all(os.path.exists(p) for p in stamp[1]):
+            self._count(stage, "fresh")
+            return stamp[2]
+        if stamp:
+            for path in stamp[1]:
+                if os.path.exists(path):
+                    os.remove(path)
+        outputs, payload = build()
+        self.stamps.put(stage, node, signature, outputs, payload)
+        self._count(stage, "built")
+        return payload
+
+    def _classpath_signature(self, cp):
+        """Source tree fingerprint and jar digests of a classpath, once per run."""
+        found = self.classpath_digests.get(cp)
+        if found is None:
+            parts = []
+            for entry in cp.split(":"):
+                if entry.endswith("/*"):
+                    parts += [f"{jar}={file_digest(jar)}" for jar in list_files(entry[:-2], (".jar",))]
+                elif os.path.isfile(entry):
+                    parts.append(f"{entry}={file_digest(entry)}")
+                elif entry != ".":
+                    parts.append(f"{entry}={self.index.fingerprint(entry)}")
+            found = self.classpath_digests[cp] = hashlib.sha256("\n".join(parts).encode()).hexdigest()
+        return found
+
+    # --- One iteration through every stage ---
+    def flow(self, key):
+        model, dataset, project, clazz, bug_or_null, iteration = key
+        node = json.dumps(key)
+        results = {}
+
+        txt_files = list_files(self.extraction.iteration_dir(key), (".txt",))
+        test_path = self.extraction.extracted_test_path(key)
+
+        def extract():
+            stats, errors = self.cpu.submit(self.extraction.analyze_iteration, key).result()
+            return [test_path] if os.path.exists(test_path) else [], {"stats": stats, "errors": errors}
+        results["extract"] = self._node("extract", node, txt_files, [], extract)
+
+        iter_path = os.path.dirname(test_path)
+        if not os.path.isdir(iter_path):
+            return results
+        if dataset == "Defects4J":
+            bug_or_iter, reorg_iteration = bug_or_null, iteration
+        else:
+            bug_or_iter, reorg_iteration = iteration, None
+        ambiguities = []
+        iter_path, fqdn, target = self.reorg.reorganize_target(
+            self.index, model, dataset, project, clazz, bug_or_iter, reorg_iteration, ambiguities)
+
+        def reorganize():
+            injections = self.reorg.copy_with_package(iter_path, target, fqdn)
+            outputs = [os.path.join(target, os.path.basename(p)) for p in list_files(iter_path, (".java",))]
+            return outputs, {"model": model, "dataset": dataset, "injections": injections, "ambiguities": ambiguities}
+        results["reorg"] = self._node("reorg", node, list_files(iter_path, (".java",)), [fqdn, target], reorganize)
+
+        job = self.reorg.compile_job(target, os.listdir(target)) if os.path.isdir(target) else None
+        if job:
+            meta, cp, java_files = job
+
+            def compile_tests():
+                for stale_output in list_files(target, COMPILE_OUTPUTS):
+                    os.remove(stale_output)
+                if self.use_javac:
+                    success, msg = self.reorg.compile_with_javac(cp, java_files, self.plugin)
+                else:
+                    success, msg = self.reorg.compile_outcome(*self.compiler.submit(cp, java_files).result())
+                return list_files(target, COMPILE_OUTPUTS), {"meta": meta, "success": success, "msg": msg}
+            results["compile"] = self._node("compile", node, sorted(java_files),
+                                            [cp, self._classpath_signature(cp)], compile_tests)
+
+        def copy_tests():
+            checked, copied, copied_files = self.copying.copy_compilable_dir(target, os.listdir(target))
+            return copied_files, {"checked": checked, "copied": copied, "files": copied_files}
+        results["copy"] = self._node("copy", node, list_files(target, (".java",) + COMPILE_OUTPUTS), [], copy_tests)
+
+        # The content-addressed result cache is the stamp of the metrics stage
+        tests = [p for p in results["copy"]["files"] if p.endswith(".java")]
+        fresh = set()
+        for version in self.metric_versions:
+            hits = {metric: self.cache.get(metric, version, tests) for metric in METRICS}
+            fresh.update(p for p in tests if all(p in hits[metric] for metric in METRICS))
+        missing = [p for p in tests if p not in fresh]
+        if missing:
+            compiled = self.compiled_scores(missing)
+            for metric in METRICS:
+                self.cache.put(metric, self.plugin_version, {p: s[metric] for p, s in compiled.items()})
+            unscored = [p for p in missing if p not in compiled]
+            if unscored:
+                scores = self.cpu.submit(score_tests, unscored).result()
+                for metric in METRICS:
+                    self.cache.put(metric, self.engine_version, {p: s[metric] for p, s in scores.items()})
+        self._count("metrics", "built" if missing else "fresh")
+        return results
+
+    def compiled_scores(self, paths):
+        """Scores the CCTR plugin wrote while compiling the tests, {path: {metric: score}}."""
+        scores = {}
+        if self.plugin:
+            for path in paths:
+                found = self.reorg.read_class_metrics(os.path.dirname(path), os.path.basename(path))
+                if found is not None:
+                    scores[path] = found
+        return scores
+
+    def run(self, keys):
+        # Scan every source tree once up front rather than from several flows at a time
+        self.index.prepare({
+            self.reorg.source_tree(dataset, project, bug_or_null if dataset == "Defects4J" else None)
+            for _, dataset, project, _, bug_or_null, _ in keys
+        })
+        futures = [self.flows.submit(self.flow, key) for key in keys]
+        results = []
+        for key, future in zip(keys, futures):
+            try:
+                results.append(future.result())
+            except Exception as e:
+                print(f"[Failed] {'/'.join(key)}: {e}")
+                results.append({})
+        return results
+
+    # --- Reports of the three scripts, from the node payloads ---
+    def save_reports(self, results):
+        syntax_stats, syntax_errors = [], []
+        injections = defaultdict(lambda: defaultdict(int))
+        ambiguities, outcomes = [], []
+        checked = copied = 0
+        for result in results:
+            if "extract" in result:
+                syntax_stats += result["extract"]["stats"]
+                for row in result["extract"]["errors"]:
+                    # JSON turned the (row, column) points into lists
+                    syntax_errors.append({**row, "Start": tuple(row["Start"]), "End": tuple(row["End"])})
+            if "reorg" in result:
+                reorg = result["reorg"]
+                if reorg["injections"]:
+                    injections[reorg["model"]][reorg["dataset"]] += reorg["injections"]
+                ambiguities += reorg["ambiguities"]
+            if "compile" in result:
+                compiled = result["compile"]
+                meta = tuple(tuple(part) if isinstance(part, list) else part for part in compiled["meta"])
+                outcomes.append((meta, compiled["success"], compiled["msg"]))
+            if "copy" in result:
+                checked += result["copy"]["checked"]
+                copied += result["copy"]["copied"]
+
+        if syntax_stats:
+            self.extraction.save_reports(syntax_stats, syntax_errors)
+        self.reorg.save_package_reports(injections, ambiguities)
+        self.reorg.save_compile_reports(outcomes)
+        print(f"Total compilable classes detected: {checked}")
+        print(f"Total successfully copied: {copied}")
+
+def run_incremental(workers, jobs, use_javac, force, plugin=None):
+    pipeline = Pipeline(workers, jobs, use_javac=use_javac, force=force, plugin=plugin)
+    try:
+        keys = list(pipeline.extraction.list_iterations())
+        results = pipeline.run(keys)
+        pruned = pipeline.stamps.prune({json.dumps(key) for key in keys})
+        pipeline.save_reports(results)
+    finally:
+        pipeline.close()
+    for stage in STAGES:
+        counts = pipeline.counts[stage]
+        print(f"[{stage}] rebuilt {counts['built']}, up to date {counts['fresh']}")
+    if pruned:
+        print(f"Forgot {pruned} stamps of iterations no longer in the corpus")
+    if materialize_summary():
+        print(f"Files placed by {materialize_summary()}")
+
+def main():
+    arg_parser = argparse.ArgumentParser(description="LLM test processing pipeline")
+    arg_parser.add_argument("--sequential", action="store_true",
+                            help="run the three scripts one after the other over the whole corpus")
+    arg_parser.add_argument("--workers", type=int, default=os.cpu_count(),
+                            help="processes for extraction and metrics (default: all cores)")
+    arg_parser.add_argument("--jobs", type=int, default=32,
+                            help="iterations in flight through the stages (default: %(default)s)")
+    arg_parser.add_argument("--javac", action="store_true",
+                            help="fork one javac per test directory instead of using the compile server")
+    arg_parser.add_argument("--compile-metrics", action="store_true",
+                            help="score tests with the CCTR javac plugin while compiling them")
+    arg_parser.add_argument("--force", action="store_true", help="rebuild every node, ignoring the stamps")
+    arg_parser.add_argument("--materialize", choices=MODES, default=None,
+                            help="reflink, hard link or copy files between the trees (default: auto, the first that works)")
+    args = arg_parser.parse_args()
+    if args.materialize:
+        set_mode(args.materialize)
+    plugin = None
+    if args.compile_metrics:
+        from reorganize_and_compile import CCTR_CORE_JAR
+        if not os.path.isfile(CCTR_CORE_JAR):
+            arg_parser.error(f"{CCTR_CORE_JAR} not found; build it with: (cd Approach/cctr-core && mvn -B package)")
+        plugin = CCTR_CORE_JAR
+
+    print("=== LLM Test Processing Pipeline ===")
+
+    if args.sequential:
+        run_sequential()
+    else:
+        run_incremental(args.workers, args.jobs, args.javac, args.force, plugin)
+
     print("\n[Done] All steps completed successfully.")
 
 if __name__ == "__main__":
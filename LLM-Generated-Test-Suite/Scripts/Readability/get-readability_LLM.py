@@ -1,5 +1,7 @@
 import os
+import sys
 import logging
+import argparse
 from concurrent.futures import ThreadPoolExecutor, as_completed
 import subprocess
 import csv
@@ -17,33 +19,11 @@ logging.basicConfig(
 RSM_DIR = 'Readability-model'
 RSM_JAR = os.path.join(RSM_DIR, 'rsm.jar')
 
-def analyze_file(java_file_path):
-    """Runs rsm.jar on a Java file and returns the readability score."""
-    cmd = ['java', '-jar', RSM_JAR, java_file_path]
-    result = subprocess.run(
-        cmd, cwd=RSM_DIR,
-        stdout=subprocess.PIPE, stderr=subprocess.PIPE,
-        text=True
-    )
-    if result.returncode != 0:
-        logging.error(f"[Readability] {java_file_path} → ERR: {result.stderr.strip()}")
-        return None
-
-    for line in result.stdout.splitlines():
-        if '\t' not in line:
-            continue
-        fname, score_str = map(str.strip, line.split('\t', 1))
-        if os.path.basename(fname) == os.path.basename(java_file_path):
-            try:
-                score = float(score_str)
-                logging.info(f"[Readability] {java_file_path} → {score}")
-                return score
-            except ValueError:
-                logging.error(f"[Readability] Invalid float '{score_str}' in {java_file_path}")
-                return None
-
-    logging.error(f"[Readability] No score found for {java_file_path}")
-    return None
+# Scoring server client, batched one-shot runner and result cache (Approach/)
+SCRIPT_DIR = os.path.dirname(os.path.abspath(__file__))
+sys.path.insert(0, os.path.join(SCRIPT_DIR, '..', '..', '..', 'Approach'))
+from rsm_client import ReadabilityClient, score_files_batched, MAX_BATCH_FILES
+from result_cache import ResultCache, DEFAULT_PATH, version_key
 
 def extract_metadata(java_file_path, base_root):
     """
@@ -59,49 +39,76 @@ def extract_metadata(java_file_path, base_root):
     class_name = os.path.splitext(os.path.basename(java_file_path))[0]
     return dataset, model, project, bug_id, class_name
 
-def analyze_dataset(base_root, detailed, aggregated):
+def analyze_dataset(base_root, detailed, aggregated, batch_size=None, cache=None):
     """
-    Traverses all .java files under base_root and computes readability scores.
+    Traverses all .java files under base_root and computes readability scores
+    through one scoring server, pipelining every file of the dataset, or with
+    one-shot rsm.jar runs on up to batch_size files each when batch_size is set.
+    Files whose content already has a score in `cache` are not scored again.
     """
+    java_files = []
     for root, _, files in os.walk(base_root):
         for filename in files:
-            if not filename.endswith('.java') or 'scaffolding' in filename:
-                continue
-
-            file_path = os.path.join(root, filename)
-            dataset, model, project, bug_id, class_name = extract_metadata(file_path, base_root)
-            score = analyze_file(file_path)
-            if score is None:
-                continue
-
-            # Detailed results
-            detailed.append({
-                'Dataset': dataset,
-                'Model': model,
-                'Project': project,
-                'Bug-ID': bug_id,
-                'Class': class_name,
-                'File': file_path,
-                'Readability': score
-            })
+            if filename.endswith('.java') and 'scaffolding' not in filename:
+                java_files.append(os.path.join(root, filename))
+    if not java_files:
+        return
 
-            # Aggregated results by (dataset, model, project)
-            key = (dataset, model, project)
-            entry = aggregated.setdefault(key, {
-                'TotalFiles': 0,
-                'TotalScore': 0.0,
-                'Scores': [],
-                'Min': float('inf'),
-                'Max': float('-inf'),
-            })
-            entry['TotalFiles'] += 1
-            entry['TotalScore'] += score
-            entry['Scores'].append(score)
-            entry['Min'] = min(entry['Min'], score)
-            entry['Max'] = max(entry['Max'], score)
+    cache = cache or ResultCache(None)
+    # The model is identified by the jar and classifier it was loaded from
+    version = version_key(RSM_JAR, os.path.join(RSM_DIR, 'readability.classifier'))
+    scores = cache.get('readability', version, java_files)
+    missing = [path for path in java_files if path not in scores]
+    # Byte-identical iterations are scored once, the copies reuse the score
+    repeated = cache.duplicates(missing)
+    missing = [path for path in missing if path not in repeated]
+    if missing:
+        if batch_size:
+            computed = score_files_batched(RSM_DIR, missing, max_files=batch_size)
+        else:
+            with ReadabilityClient(RSM_DIR) as rsm:
+                computed = rsm.score_files(missing)
+        cache.put('readability', version, computed)
+        scores.update(computed)
+    for path, original in repeated.items():
+        scores[path] = scores.get(original)
+
+    for file_path in java_files:
+        score = scores[file_path]
+        if score is None:
+            logging.error(f"[Readability] No score found for {file_path}")
+            continue
+        logging.info(f"[Readability] {file_path} → {score}")
+        dataset, model, project, bug_id, class_name = extract_metadata(file_path, base_root)
+
+        # Detailed results
+        detailed.append({
+            'Dataset': dataset,
+            'Model': model,
+            'Project': project,
+            'Bug-ID': bug_id,
+            'Class': class_name,
+            'File': file_path,
+            'Readability': score
+        })
+
+        # Aggregated results by (dataset, model, project)
+        key = (dataset, model, project)
+        entry = aggregated.setdefault(key, {
+            'TotalFiles': 0,
+            'TotalScore': 0.0,
+            'Scores': [],
+            'Min': float('inf'),
+            'Max': float('-inf'),
+        })
+        entry['TotalFiles'] += 1
+        entry['TotalScore'] += score
+        entry['Scores'].append(score)
+        entry['Min'] = min(entry['Min'], score)
+        entry['Max'] = max(entry['Max'], score)
 
 def save_detailed_csv(detailed, output_csv):
-    os.makedirs(os.path.dirname(output_csv), exist_ok=True)
+    os.makedirs(os.path.dirname(output_csv) or '.', exist_ok=True)
     with open(output_csv, 'w', newline='', encoding='utf-8') as f:
         writer = csv.DictWriter(f, fieldnames=[
             'Dataset', 'Model', 'Project', 'Bug-ID', 'Class', 'File', 'Readability'
@@ -110,7 +117,7 @@ def save_detailed_csv(detailed, output_csv):
         writer.writerows(detailed)
 
 def save_summary_csv(aggregated, output_csv):
-    os.makedirs(os.path.dirname(output_csv), exist_ok=True)
+    os.makedirs(os.path.dirname(output_csv) or '.', exist_ok=True)
     with open(output_csv, 'w', newline='', encoding='utf-8') as f:
         writer = csv.DictWriter(f, fieldnames=[
             'Dataset', 'Model', 'Project', 'Total Files',
@@ -131,6 +138,17 @@ def save_summary_csv(aggregated, output_csv):
             })
 
 def main():
+    arg_parser = argparse.ArgumentParser(description='Readability of the compilable LLM-generated tests.')
+    arg_parser.add_argument('--batch', action='store_true',
+                            help='run rsm.jar on chunks of files instead of through the scoring server')
+    arg_parser.add_argument('--batch-size', type=int, default=MAX_BATCH_FILES,
+                            help='maximum files per rsm.jar run in --batch mode (default: %(default)s)')
+    arg_parser.add_argument('--cache', default=DEFAULT_PATH,
+                            help='result cache database shared by the metric stages (default: %(default)s)')
+    arg_parser.add_argument('--no-cache', action='store_true', help='rescore every file')
+    args = arg_parser.parse_args()
+    batch_size = args.batch_size if args.batch else None
+
     if not os.path.isfile(RSM_JAR):
         logging.error(f"Missing rsm.jar at {RSM_JAR}")
         return
@@ -145,8 +163,9 @@ def main():
     detailed_results = []
     aggregated_results = {}
 
-    with ThreadPoolExecutor() as executor:
-        futures = [executor.submit(analyze_dataset, path, detailed_results, aggregated_results) for path in base_paths]
+    with ResultCache(None if args.no_cache else args.cache) as cache, ThreadPoolExecutor() as executor:
+        futures = [executor.submit(analyze_dataset, path, detailed_results, aggregated_results, batch_size, cache)
+                   for path in base_paths]
         for future in as_completed(futures):
             if future.exception():
                 logging.error(f"Thread error: {future.exception()}")